@@ -0,0 +1,281 @@
+import processing.awt.PGraphicsJava2D;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.function.BiFunction;
+
+/**
+ * The operations timed by the JMH benchmarks in the benchmarks package,
+ * each on a synthetic world of a given size.
+ *
+ * JMH only accepts benchmarks in a named package, and classes in a named
+ * package cannot refer to the editor's classes in the default package.
+ * The benchmarks load this class by name and call the operation it
+ * returns, which costs them one interface call per operation. Only the
+ * fixtures an operation needs are built, so no other view or listener
+ * is attached to the world while it is timed.
+ */
+public final class BenchmarkWorkloads implements BiFunction<String, Integer, Callable<Object>>
+{
+    private static final String IMAGE_LIST_FILE_NAME = "imagelist";
+    private static final int TILE_WIDTH = 32;
+    private static final int TILE_HEIGHT = 32;
+    private static final int VIEW_COLS = 40;
+    private static final int VIEW_ROWS = 30;
+    private static final String[] TEXTURES = {"grass", "flowers", "dirt", "bridge"};
+    private static final long SEED = 42;
+
+    @Override
+    public Callable<Object> apply(String name, Integer size) {
+        try {
+            return this.create(name, size);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Callable<Object> create(String name, int size) throws IOException {
+        ImageStore imageStore = new ImageStore(new PImage(TILE_WIDTH, TILE_HEIGHT, PApplet.RGB));
+        if (name.equals("parserLoadImages")) {
+            PApplet screen = createScreen();
+            return () -> {
+                ImageStore loaded = new ImageStore(new PImage(TILE_WIDTH, TILE_HEIGHT, PApplet.RGB));
+                try (RecordReader in = RecordReader.open(Paths.get(IMAGE_LIST_FILE_NAME))) {
+                    new Parser().loadImages(in, screen, loaded);
+                }
+                return loaded;
+            };
+        }
+
+        WorldModel world = createWorld(size, imageStore);
+        Random random = new Random(SEED);
+        switch (name) {
+            case "parserLoad": {
+                Path text = createTempFile(".sav");
+                WorldWriter.save(world, text);
+                return () -> {
+                    WorldModel loaded = new WorldModel(0, 0, imageStore.createDefaultBackground());
+                    new Parser().load(text, loaded, imageStore);
+                    return loaded;
+                };
+            }
+            case "binaryWorldFileLoad": {
+                Path binary = createTempFile(BinaryWorldFile.EXTENSION);
+                WorldWriter.save(world, binary);
+                return () -> {
+                    WorldModel loaded = new WorldModel(0, 0, imageStore.createDefaultBackground());
+                    BinaryWorldFile.load(binary, loaded, imageStore);
+                    return loaded;
+                };
+            }
+            case "worldWriterWriteText":
+                return () -> {
+                    long[] written = new long[1];
+                    WorldWriter.writeText(world, new Writer() {
+                        public void write(char[] buffer, int offset, int length) {
+                            written[0] += length;
+                        }
+
+                        public void flush() {
+                        }
+
+                        public void close() {
+                        }
+                    });
+                    return written[0];
+                };
+            case "worldWriterWriteTextParallel":
+                return () -> {
+                    long[] written = new long[1];
+                    WorldWriter.writeText(world, new OutputStream() {
+                        public void write(int b) {
+                            written[0]++;
+                        }
+
+                        public void write(byte[] buffer, int offset, int length) {
+                            written[0] += length;
+                        }
+                    }, false, progress -> { });
+                    return written[0];
+                };
+            case "worldWriterSave": {
+                Path text = createTempFile(".sav");
+                return () -> {
+                    WorldWriter.save(world, text);
+                    return text;
+                };
+            }
+            case "worldWriterSaveGzip": {
+                Path compressed = createTempFile(".sav" + WorldWriter.GZIP_EXTENSION);
+                return () -> {
+                    WorldWriter.save(world, compressed);
+                    return compressed;
+                };
+            }
+            case "binaryWorldFileSave": {
+                Path binary = createTempFile(BinaryWorldFile.EXTENSION);
+                return () -> {
+                    BinaryWorldFile.save(world, binary);
+                    return binary;
+                };
+            }
+            case "worldModelAddRemove": {
+                List<PImage> houseImages = imageStore.getImageList("house");
+                return () -> {
+                    int col = random.nextInt(size);
+                    int row = random.nextInt(size);
+                    if (!world.isOccupied(col, row)) {
+                        Entity house = Factory.createHouse("house_" + col + "_" + row,
+                                new Point(col, row), houseImages);
+                        world.addEntity(house);
+                        world.removeEntity(house);
+                    }
+                    return world;
+                };
+            }
+            case "worldModelLookup":
+                return () -> {
+                    int col = random.nextInt(size);
+                    int row = random.nextInt(size);
+                    return world.getBackgroundTile(col, row) + (world.isOccupied(col, row) ? 1 : 0);
+                };
+            case "worldModelEntitiesIterate":
+                return () -> {
+                    long sum = 0;
+                    for (Entity entity : world.getEntities()) {
+                        sum += entity.getPosition().x;
+                    }
+                    return sum;
+                };
+            case "worldModelFloodFill": {
+                short grass = world.getPalette().intern("grass", imageStore.getImageList("grass"));
+                short flowers = world.getPalette().intern("flowers", imageStore.getImageList("flowers"));
+                return () -> {
+                    world.floodFill(0, 0, grass);
+                    world.floodFill(0, 0, flowers);
+                    return world;
+                };
+            }
+            case "entityStoreIterate": {
+                EntityStore store = createStore(world, imageStore);
+                return () -> {
+                    long[] sum = new long[1];
+                    store.forEach(handle -> sum[0] += store.getX(handle));
+                    return sum[0];
+                };
+            }
+            case "entityStoreFind": {
+                EntityStore store = createStore(world, imageStore);
+                return () -> store.find("tree_" + random.nextInt(size) + "_" + random.nextInt(size));
+            }
+            case "entityStoreAddRemove": {
+                EntityStore store = createStore(world, imageStore);
+                return () -> {
+                    int handle = store.addHouse(size + random.nextInt(size), random.nextInt(size));
+                    store.remove(handle);
+                    return handle;
+                };
+            }
+            case "worldViewDrawViewportIdle": {
+                WorldView view = createView(world);
+                return () -> {
+                    view.drawViewport();
+                    return view;
+                };
+            }
+            case "worldViewDrawViewportFull": {
+                WorldView view = createView(world);
+                return () -> {
+                    view.invalidateAll();
+                    view.drawViewport();
+                    return view;
+                };
+            }
+            case "worldViewDrawViewportScroll": {
+                WorldView view = createView(world);
+                int[] step = {1};
+                return () -> {
+                    if (view.getViewport().getCol() + VIEW_COLS >= size || view.getViewport().getCol() == 0) {
+                        step[0] = view.getViewport().getCol() == 0 ? 1 : -1;
+                    }
+                    view.shiftView(step[0], 0);
+                    view.drawViewport();
+                    return view;
+                };
+            }
+            case "worldViewDrawViewportZoomed": {
+                WorldView view = createView(world);
+                view.setZoom(view.getMaxZoom());
+                return () -> {
+                    view.invalidateAll();
+                    view.drawViewport();
+                    return view;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown benchmark " + name);
+        }
+    }
+
+    private static WorldModel createWorld(int size, ImageStore imageStore) {
+        // Patches of each texture with about one tile in twenty holding an entity
+        Random random = new Random(SEED);
+        WorldModel world = new WorldModel(size, size, imageStore.createDefaultBackground());
+        short[] tiles = new short[TEXTURES.length];
+        for (int i = 0; i < TEXTURES.length; i++) {
+            tiles[i] = world.getPalette().intern(TEXTURES[i], imageStore.getImageList(TEXTURES[i]));
+        }
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                world.setBackgroundTile(col, row, tiles[((col >> 3) + (row >> 3) + random.nextInt(2)) % tiles.length]);
+                if (random.nextInt(20) == 0) {
+                    world.addEntity(Factory.createTree("tree_" + col + "_" + row, new Point(col, row),
+                            imageStore.getImageList("tree"), 500, 1000, 2));
+                }
+            }
+        }
+        return world;
+    }
+
+    private static EntityStore createStore(WorldModel world, ImageStore imageStore) {
+        EntityStore store = new EntityStore(imageStore);
+        world.getEntities().forEach(store::add);
+        return store;
+    }
+
+    private static WorldView createView(WorldModel world) {
+        PApplet screen = createScreen();
+        WorldView view = new WorldView(VIEW_ROWS, VIEW_COLS, screen, world, TILE_WIDTH, TILE_HEIGHT);
+        screen.g.beginDraw();
+        return view;
+    }
+
+    private static PApplet createScreen() {
+        // An offscreen Java2D renderer stands in for the window's graphics
+        PApplet screen = new PApplet();
+        PGraphics graphics = new PGraphicsJava2D();
+        graphics.setParent(screen);
+        graphics.setPrimary(false);
+        graphics.setSize(VIEW_COLS * TILE_WIDTH, VIEW_ROWS * TILE_HEIGHT);
+        screen.g = graphics;
+        return screen;
+    }
+
+    private static Path createTempFile(String suffix) throws IOException {
+        Path path = Files.createTempFile("benchmark", suffix);
+        path.toFile().deleteOnExit();
+        return path;
+    }
+}
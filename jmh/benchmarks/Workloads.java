@@ -0,0 +1,32 @@
+package benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.Callable;
+import java.util.function.BiFunction;
+
+/**
+ * Looks up the operation a benchmark method times in BenchmarkWorkloads,
+ * which lives in the default package with the editor and so can only be
+ * reached by name from here.
+ */
+final class Workloads
+{
+    private static final String WORKLOADS_CLASS = "BenchmarkWorkloads";
+
+    private Workloads() {
+    }
+
+    /**
+     * Builds the operation for the benchmark method being run, named by
+     * the method, on a world of size by size tiles.
+     */
+    @SuppressWarnings("unchecked")
+    static Callable<Object> create(BenchmarkParams params, int size) throws ReflectiveOperationException {
+        String benchmark = params.getBenchmark();
+        String method = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+        BiFunction<String, Integer, Callable<Object>> workloads = (BiFunction<String, Integer, Callable<Object>>)
+                Class.forName(WORKLOADS_CLASS).getConstructor().newInstance();
+        return workloads.apply(method, size);
+    }
+}
@@ -0,0 +1,133 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the load, save, edit and render paths on synthetic worlds of
+ * size by size tiles. Every method runs the operation BenchmarkWorkloads
+ * builds for its name, in a fork of its own, and returns the result so
+ * JMH consumes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 8, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class WorldBenchmarks
+{
+    @Param({"64", "256", "1024"})
+    public int size;
+
+    private Callable<Object> operation;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params) throws ReflectiveOperationException {
+        this.operation = Workloads.create(params, this.size);
+    }
+
+    @Benchmark
+    public Object parserLoad() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object binaryWorldFileLoad() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldWriterWriteText() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldWriterWriteTextParallel() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldWriterSave() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldWriterSaveGzip() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object binaryWorldFileSave() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldModelAddRemove() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldModelLookup() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldModelEntitiesIterate() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldModelFloodFill() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object entityStoreIterate() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object entityStoreFind() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object entityStoreAddRemove() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldViewDrawViewportIdle() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldViewDrawViewportFull() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldViewDrawViewportScroll() throws Exception {
+        return this.operation.call();
+    }
+
+    @Benchmark
+    public Object worldViewDrawViewportZoomed() throws Exception {
+        return this.operation.call();
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Steps the animation frames of the entities on and near the screen.
+ *
+ * Scheduled entities sit in a hashed timing wheel: a ring of slots, one
+ * per tick, each holding a linked list of the entities due on a tick
+ * that maps to it. Advancing the clock only visits the slots passed, so
+ * the cost of a frame depends on the animations due rather than on how
+ * many entities the world holds. The lists are chained through arrays,
+ * so scheduling does not allocate once the arrays have grown.
+ *
+ * Entities are only scheduled while they are inside the viewport or
+ * within margin tiles of it. Those that scroll into that area are
+ * scheduled when the viewport moves. Those that leave it are dropped the
+ * next time they are due.
+ */
+public final class Animator implements WorldEditListener
+{
+    public static final int TICK_MILLIS = 10;
+    public static final int DEFAULT_MARGIN = 4;
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int NONE = -1;
+
+    private final WorldModel world;
+    private final WorldView view;
+    private final double timeScale;
+    private final int margin;
+    private final Consumer<Entity> activate = this::activate;
+
+    private final int[] heads;
+    private Entity[] entities;
+    private long[] due;
+    private int[] periods;
+    private int[] next;
+    private int[] prev;
+    private int limit;
+    private int free;
+    private int scheduled;
+
+    private boolean started;
+    private long tick;
+    private int minCol;
+    private int minRow;
+    private int maxCol;
+    private int maxRow;
+
+    /**
+     * Animates the entities of world around the viewport of view.
+     * Animation periods are multiplied by timeScale, so a smaller scale
+     * animates faster.
+     */
+    public Animator(WorldModel world, WorldView view, double timeScale, int margin) {
+        this.world = world;
+        this.view = view;
+        this.timeScale = timeScale;
+        this.margin = margin;
+        this.heads = new int[SLOTS];
+        Arrays.fill(this.heads, NONE);
+        this.entities = new Entity[INITIAL_CAPACITY];
+        this.due = new long[INITIAL_CAPACITY];
+        this.periods = new int[INITIAL_CAPACITY];
+        this.next = new int[INITIAL_CAPACITY];
+        this.prev = new int[INITIAL_CAPACITY];
+        this.free = NONE;
+        this.maxCol = -1;
+        this.maxRow = -1;
+        world.addEditListener(this);
+    }
+
+    /**
+     * Brings the animations up to time, in milliseconds, and schedules
+     * the entities that have come near the viewport since the last call.
+     */
+    public void update(long time) {
+        long now = time / TICK_MILLIS;
+        if (!this.started) {
+            this.tick = now;
+            this.started = true;
+        }
+
+        // After a long pause every slot is visited once and overdue frames are only stepped once
+        long steps = Math.min(now - this.tick, SLOTS);
+        for (long step = 1; step <= steps; step++) {
+            this.advance((int) ((this.tick + step) & SLOT_MASK), now);
+        }
+        this.tick = Math.max(this.tick, now);
+
+        // Followed after the clock is current, so entities coming into view are first due a period from now
+        this.follow(this.view.getViewport());
+    }
+
+    /**
+     * The number of entities currently scheduled.
+     */
+    public int getScheduled() {
+        return scheduled;
+    }
+
+    @Override
+    public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+        // Backgrounds do not animate
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes) {
+        // Not passed on tile by tile, as the default would
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        if (this.isActive(entity.getPosition().getX(), entity.getPosition().getY())) {
+            this.activate(entity);
+        }
+    }
+
+    @Override
+    public void entityRemoved(Entity entity, int col, int row) {
+        int entry = entity.getAnimationEntry();
+        if (entry != NONE) {
+            this.unlink(entry, (int) (this.due[entry] & SLOT_MASK));
+            this.release(entry);
+        }
+    }
+
+    private void follow(Viewport viewport) {
+        int newMinCol = viewport.getCol() - this.margin;
+        int newMinRow = viewport.getRow() - this.margin;
+        int newMaxCol = viewport.getCol() + viewport.getNumCols() - 1 + this.margin;
+        int newMaxRow = viewport.getRow() + viewport.getNumRows() - 1 + this.margin;
+        if (newMinCol == this.minCol && newMinRow == this.minRow
+                && newMaxCol == this.maxCol && newMaxRow == this.maxRow) {
+            return;
+        }
+
+        this.minCol = newMinCol;
+        this.minRow = newMinRow;
+        this.maxCol = newMaxCol;
+        this.maxRow = newMaxRow;
+        this.world.forEachEntityIn(newMinCol, newMinRow, newMaxCol - newMinCol + 1,
+                newMaxRow - newMinRow + 1, this.activate);
+    }
+
+    private boolean isActive(int col, int row) {
+        return col >= this.minCol && col <= this.maxCol && row >= this.minRow && row <= this.maxRow;
+    }
+
+    private void activate(Entity entity) {
+        int period = entity.getAnimationPeriod();
+        if (entity.getAnimationEntry() != NONE || period <= 0 || entity.getImages().size() < 2) {
+            return;
+        }
+
+        int entry = this.allocate();
+        int ticks = (int) Math.max(1, Math.round(period * this.timeScale / TICK_MILLIS));
+        this.entities[entry] = entity;
+        this.periods[entry] = ticks;
+        this.due[entry] = this.tick + ticks;
+        entity.setAnimationEntry(entry);
+        this.link(entry);
+    }
+
+    private void advance(int slot, long now) {
+        // The slot's list is taken whole, so entries put back into this slot wait for its next turn
+        int entry = this.heads[slot];
+        this.heads[slot] = NONE;
+        while (entry != NONE) {
+            int following = this.next[entry];
+            Entity entity = this.entities[entry];
+            Point pos = entity.getPosition();
+            if (this.due[entry] > now) {
+                // Due on a later turn of the wheel
+                this.link(entry);
+            }
+            else if (!this.isActive(pos.getX(), pos.getY())) {
+                this.release(entry);
+            }
+            else {
+                entity.setImageIndex((entity.getImageIndex() + 1) % entity.getImages().size());
+                this.view.invalidate(pos.getX(), pos.getY());
+                this.due[entry] = now + this.periods[entry];
+                this.link(entry);
+            }
+            entry = following;
+        }
+    }
+
+    private void link(int entry) {
+        int slot = (int) (this.due[entry] & SLOT_MASK);
+        int head = this.heads[slot];
+        this.next[entry] = head;
+        this.prev[entry] = NONE;
+        if (head != NONE) {
+            this.prev[head] = entry;
+        }
+        this.heads[slot] = entry;
+    }
+
+    private void unlink(int entry, int slot) {
+        if (this.prev[entry] != NONE) {
+            this.next[this.prev[entry]] = this.next[entry];
+        }
+        else {
+            this.heads[slot] = this.next[entry];
+        }
+        if (this.next[entry] != NONE) {
+            this.prev[this.next[entry]] = this.prev[entry];
+        }
+    }
+
+    private int allocate() {
+        int entry;
+        if (this.free != NONE) {
+            entry = this.free;
+            this.free = this.next[entry];
+        }
+        else {
+            if (this.limit == this.entities.length) {
+                int capacity = this.limit * 2;
+                this.entities = Arrays.copyOf(this.entities, capacity);
+                this.due = Arrays.copyOf(this.due, capacity);
+                this.periods = Arrays.copyOf(this.periods, capacity);
+                this.next = Arrays.copyOf(this.next, capacity);
+                this.prev = Arrays.copyOf(this.prev, capacity);
+            }
+            entry = this.limit++;
+        }
+        this.scheduled++;
+        return entry;
+    }
+
+    private void release(int entry) {
+        this.entities[entry].setAnimationEntry(NONE);
+        this.entities[entry] = null;
+        this.next[entry] = this.free;
+        this.free = entry;
+        this.scheduled--;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Picks the dirt path variant for each path tile from which of its four
+ * edge neighbours are path tiles too, so a path can be painted in one
+ * stroke. The path textures draw the path along the left and bottom edges
+ * of a tile, and the table below chooses the variant whose strips meet
+ * the strips of the neighbouring tiles. Bridges connect to paths but are
+ * never replaced, and neither are the hand placed path textures the table
+ * never picks.
+ *
+ * The world asks the autotiler to retile the cells around every tile it
+ * changes, so the cost of an edit is constant per changed tile.
+ */
+public final class Autotiler
+{
+    public static final String PATH_KEY = "dirt";
+
+    private static final String[] VARIANT_KEYS = {
+            "dirt",
+            "dirt_vert_right",
+            "dirt_horiz",
+            "dirt_vert_left_bot",
+            "dirt_bot_left_corner"
+    };
+    // Path textures the table never picks, which saved worlds still hold;
+    // they join up with paths but are left as they were placed
+    private static final String[] OTHER_PATH_KEYS = {
+            "dirt_vert_left",
+            "dirt_bot_right_up"
+    };
+    private static final String BRIDGE_KEY = "bridge";
+
+    public static final int NORTH = 1;
+    public static final int EAST = 2;
+    public static final int SOUTH = 4;
+    public static final int WEST = 8;
+
+    // Indexes into VARIANT_KEYS by neighbour mask
+    private static final int[] VARIANT_BY_MASK = {
+            0, // none: a patch of dirt
+            1, // N: left strip
+            2, // E: bottom strip
+            3, // N E: left and bottom strips
+            1, // S: left strip
+            1, // N S: left strip
+            2, // E S: bottom strip
+            3, // N E S
+            2, // W: bottom strip
+            1, // N W: left strip, meeting the bottom strip to the west
+            2, // E W: bottom strip
+            3, // N E W
+            4, // S W: corner where the two strips meet
+            1, // N S W
+            2, // E S W
+            3  // N E S W
+    };
+
+    private final short[] variants;
+    private final boolean[] paths;
+    private final boolean[] connectors;
+    private final boolean[] placed;
+
+    public Autotiler(TilePalette palette, ImageStore imageStore) {
+        this.variants = new short[VARIANT_KEYS.length];
+        for (int i = 0; i < VARIANT_KEYS.length; i++) {
+            this.variants[i] = palette.intern(VARIANT_KEYS[i],
+                    imageStore.getImageList(VARIANT_KEYS[i]));
+        }
+        short[] others = new short[OTHER_PATH_KEYS.length];
+        for (int i = 0; i < OTHER_PATH_KEYS.length; i++) {
+            others[i] = palette.intern(OTHER_PATH_KEYS[i],
+                    imageStore.getImageList(OTHER_PATH_KEYS[i]));
+        }
+        short bridge = palette.intern(BRIDGE_KEY, imageStore.getImageList(BRIDGE_KEY));
+
+        int size = palette.size();
+        this.paths = new boolean[size];
+        this.connectors = new boolean[size];
+        this.placed = new boolean[size];
+        for (short variant : this.variants) {
+            this.paths[variant] = true;
+            this.connectors[variant] = true;
+        }
+        for (short other : others) {
+            this.paths[other] = true;
+            this.connectors[other] = true;
+            this.placed[other] = true;
+        }
+        this.connectors[bridge] = true;
+    }
+
+    /**
+     * The texture key of the path variant for a mask of the NORTH, EAST,
+     * SOUTH and WEST neighbours that connect to the tile.
+     */
+    public static String variantKey(int mask) {
+        return VARIANT_KEYS[VARIANT_BY_MASK[mask]];
+    }
+
+    public boolean isPath(short tile) {
+        return tile < this.paths.length && this.paths[tile];
+    }
+
+    /**
+     * Returns the variant the path tile at (col, row) should have, or tile
+     * unchanged if it is not a path tile or is a hand placed one.
+     */
+    public short resolve(WorldModel world, int col, int row, short tile) {
+        if (!this.isPath(tile) || this.placed[tile]) {
+            return tile;
+        }
+        int mask = 0;
+        if (this.connects(world, col, row - 1)) {
+            mask |= NORTH;
+        }
+        if (this.connects(world, col + 1, row)) {
+            mask |= EAST;
+        }
+        if (this.connects(world, col, row + 1)) {
+            mask |= SOUTH;
+        }
+        if (this.connects(world, col - 1, row)) {
+            mask |= WEST;
+        }
+        return this.variants[VARIANT_BY_MASK[mask]];
+    }
+
+    private boolean connects(WorldModel world, int col, int row) {
+        if (row < 0 || row >= world.getNumRows() || col < 0 || col >= world.getNumCols()) {
+            return false;
+        }
+        short tile = world.getBackgroundTile(col, row);
+        return tile < this.connectors.length && this.connectors[tile];
+    }
+}
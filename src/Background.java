@@ -8,12 +8,24 @@ import processing.core.PImage;
 public final class Background
 {
     private final String id;
-    private final List<PImage> images;
+    private final FrameList images;
     private int imageIndex;
 
     public Background(String id, List<PImage> images) {
         this.id = id;
-        this.images = images;
+        this.images = FrameList.of(images);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public FrameList getImages() {
+        return images;
+    }
+
+    public int getImageIndex() {
+        return imageIndex;
     }
 
     public PImage getCurrentImage() {
@@ -0,0 +1,138 @@
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Batch Editor
+
+    Applies an edit script to many map files without opening a window, for example on a build machine:
+
+        java BatchEditor [-threads n] [-autotile] script output-directory map...
+
+    Each map is loaded, edited and written to the output directory under the same file name, in the same format
+    it was read in. Maps are processed in parallel, one per thread, and only one map per thread is held in memory
+    at a time. See EditScript for the script format.
+ */
+
+public final class BatchEditor
+{
+    private static final String THREADS_FLAG = "-threads";
+    private static final String AUTOTILE_FLAG = "-autotile";
+
+    private static final int TILE_WIDTH = 32;
+    private static final int TILE_HEIGHT = 32;
+
+    private final EditScript script;
+    private final ImageStore imageStore;
+    private final boolean autotile;
+
+    public BatchEditor(EditScript script, boolean autotile) {
+        this.script = script;
+        // Nothing is drawn, so every texture key can share one blank image
+        this.imageStore = new ImageStore(new PImage(TILE_WIDTH, TILE_HEIGHT, PApplet.RGB));
+        this.autotile = autotile;
+    }
+
+    /**
+     * Loads the map at source, applies the script and writes the result
+     * to target.
+     */
+    public void edit(Path source, Path target) throws IOException {
+        WorldModel world = new WorldModel(0, 0, this.imageStore.createDefaultBackground());
+        new Parser().load(source, world, this.imageStore);
+        if (this.autotile) {
+            world.setAutotiler(new Autotiler(world.getPalette(), this.imageStore));
+        }
+        this.script.apply(world, this.imageStore);
+        WorldWriter.save(world, target);
+    }
+
+    /**
+     * Edits every map on a pool of threads. Returns the number of maps
+     * that could not be edited.
+     */
+    public int editAll(List<Path> maps, Path outputDirectory, int threads)
+            throws InterruptedException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "batch-editor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> results = new ArrayList<>();
+        for (Path map : maps) {
+            Path target = outputDirectory.resolve(map.getFileName());
+            results.add(workers.submit(() -> {
+                this.edit(map, target);
+                return null;
+            }));
+        }
+
+        int failed = 0;
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    System.err.println(maps.get(i) + ": " + e.getCause().getMessage());
+                    failed++;
+                }
+            }
+        }
+        finally {
+            workers.shutdownNow();
+        }
+        return failed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean autotile = false;
+        int next = 0;
+        while (next < args.length && args[next].startsWith("-")) {
+            switch (args[next]) {
+                case THREADS_FLAG:
+                    threads = Integer.parseInt(args[++next]);
+                    break;
+                case AUTOTILE_FLAG:
+                    autotile = true;
+                    break;
+                default:
+                    System.err.println("unknown option " + args[next]);
+                    System.exit(2);
+            }
+            next++;
+        }
+        if (args.length - next < 3) {
+            System.err.println("usage: BatchEditor [-threads n] [-autotile] script output-directory map...");
+            System.exit(2);
+        }
+
+        EditScript script = EditScript.read(Paths.get(args[next]));
+        Path outputDirectory = Paths.get(args[next + 1]);
+        Files.createDirectories(outputDirectory);
+        List<Path> maps = new ArrayList<>();
+        for (int i = next + 2; i < args.length; i++) {
+            maps.add(Paths.get(args[i]));
+        }
+
+        long start = System.nanoTime();
+        int failed = new BatchEditor(script, autotile).editAll(maps, outputDirectory, threads);
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(String.format("Edited %d of %d maps in %d ms",
+                maps.size() - failed, maps.size(), millis));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,338 @@
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Versioned binary save format, kept next to the text format read by Parser.
+ *
+ * Layout (little endian):
+ *   header   magic, version, columns, rows, chunk size
+ *   keys     number of texture keys, then each key as length + UTF-8 bytes;
+ *            lengths are unsigned shorts, so keys and ids are limited to
+ *            MAX_STRING_BYTES
+ *   chunks   one record per chunk in row major order: EMPTY, UNIFORM with a
+ *            single key index, or RAW with Chunk.AREA key indices
+ *   entities number of entities, then kind, column, row, id and the
+ *            parameters of that kind
+ */
+public final class BinaryWorldFile
+{
+    public static final String EXTENSION = ".wsav";
+    public static final int MAX_STRING_BYTES = 0xffff;
+
+    private static final int MAGIC = 0x56415357; // "WSAV"
+    private static final short VERSION = 1;
+
+    private static final byte CHUNK_EMPTY = 0;
+    private static final byte CHUNK_UNIFORM = 1;
+    private static final byte CHUNK_RAW = 2;
+
+    private static final byte KIND_HOUSE = 0;
+    private static final byte KIND_OBSTACLE = 1;
+    private static final byte KIND_TREE = 2;
+
+    private static final String HOUSE_KEY = "house";
+    private static final String OBSTACLE_KEY = "obstacle";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static boolean isBinary(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            return channel.read(magic) == Integer.BYTES && magic.getInt(0) == MAGIC;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void save(WorldModel world, Path path) throws IOException {
+        save(world, path, progress -> { });
+    }
+
+    public static void save(WorldModel world, Path path, DoubleConsumer progress)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putInt(world.getNumCols());
+            buffer.putInt(world.getNumRows());
+            buffer.putInt(Chunk.SIZE);
+
+            // Key indices in the file are the world's palette indices
+            TilePalette palette = world.getPalette();
+            buffer.putInt(palette.size());
+            for (int i = 0; i < palette.size(); i++) {
+                putString(channel, buffer, palette.get(i).getId());
+            }
+
+            for (int chunkRow = 0; chunkRow < world.getChunkRows(); chunkRow++) {
+                for (int chunkCol = 0; chunkCol < world.getChunkCols(); chunkCol++) {
+                    putChunk(channel, buffer, world.getChunkTiles(chunkCol, chunkRow));
+                }
+                progress.accept((chunkRow + 1) / (double) world.getChunkRows());
+            }
+
+            // Positions come from the cells so that copies of a world save correctly
+            ensureRemaining(channel, buffer, Integer.BYTES);
+            buffer.putInt(world.getEntities().size());
+            for (int chunkRow = 0; chunkRow < world.getChunkRows(); chunkRow++) {
+                for (int chunkCol = 0; chunkCol < world.getChunkCols(); chunkCol++) {
+                    Entity[] occupancy = world.getChunkOccupancy(chunkCol, chunkRow);
+                    for (int i = 0; occupancy != null && i < occupancy.length; i++) {
+                        if (occupancy[i] != null) {
+                            putEntity(channel, buffer, occupancy[i],
+                                    (chunkCol << Chunk.SHIFT) + (i & Chunk.MASK),
+                                    (chunkRow << Chunk.SHIFT) + (i >> Chunk.SHIFT));
+                        }
+                    }
+                }
+            }
+
+            flush(channel, buffer);
+        }
+    }
+
+    public static void load(Path path, WorldModel world, ImageStore imageStore)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a binary world file");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("unsupported world file version " + version);
+            }
+            int numCols = buffer.getInt();
+            int numRows = buffer.getInt();
+            if (buffer.getInt() != Chunk.SIZE) {
+                throw new IOException("world file uses a different chunk size");
+            }
+            world.ensureSize(numRows, numCols);
+
+            // Map file key indices onto the palette of the world being filled
+            short[] remap = new short[buffer.getInt()];
+            boolean identity = true;
+            for (int i = 0; i < remap.length; i++) {
+                String key = getString(buffer);
+                remap[i] = world.getPalette().intern(key, imageStore.getImageList(key));
+                identity &= remap[i] == i;
+            }
+
+            int chunkRows = (numRows + Chunk.MASK) >> Chunk.SHIFT;
+            int chunkCols = (numCols + Chunk.MASK) >> Chunk.SHIFT;
+            for (int chunkRow = 0; chunkRow < chunkRows; chunkRow++) {
+                for (int chunkCol = 0; chunkCol < chunkCols; chunkCol++) {
+                    short[] tiles = getChunk(buffer, remap, identity);
+                    if (tiles != null) {
+                        world.setChunkTiles(chunkCol, chunkRow, tiles);
+                    }
+                }
+            }
+
+            int numEntities = buffer.getInt();
+            for (int i = 0; i < numEntities; i++) {
+                world.tryAddEntity(getEntity(buffer, imageStore));
+            }
+        }
+    }
+
+    private static void putChunk(FileChannel channel, ByteBuffer buffer, short[] tiles)
+            throws IOException
+    {
+        if (tiles == null) {
+            ensureRemaining(channel, buffer, Byte.BYTES);
+            buffer.put(CHUNK_EMPTY);
+            return;
+        }
+
+        boolean uniform = true;
+        for (int i = 1; i < tiles.length && uniform; i++) {
+            uniform = tiles[i] == tiles[0];
+        }
+
+        if (uniform) {
+            ensureRemaining(channel, buffer, Byte.BYTES + Short.BYTES);
+            buffer.put(CHUNK_UNIFORM);
+            buffer.putShort(tiles[0]);
+        }
+        else {
+            ensureRemaining(channel, buffer, Byte.BYTES + Chunk.AREA * Short.BYTES);
+            buffer.put(CHUNK_RAW);
+            buffer.asShortBuffer().put(tiles);
+            buffer.position(buffer.position() + Chunk.AREA * Short.BYTES);
+        }
+    }
+
+    private static short[] getChunk(ByteBuffer buffer, short[] remap, boolean identity)
+            throws IOException
+    {
+        byte kind = buffer.get();
+        switch (kind) {
+            case CHUNK_EMPTY:
+                return null;
+            case CHUNK_UNIFORM: {
+                short tile = remap[buffer.getShort()];
+                if (tile == TilePalette.DEFAULT_TILE) {
+                    return null;
+                }
+                short[] tiles = new short[Chunk.AREA];
+                Arrays.fill(tiles, tile);
+                return tiles;
+            }
+            case CHUNK_RAW: {
+                short[] tiles = new short[Chunk.AREA];
+                buffer.asShortBuffer().get(tiles);
+                buffer.position(buffer.position() + Chunk.AREA * Short.BYTES);
+                if (!identity) {
+                    for (int i = 0; i < tiles.length; i++) {
+                        tiles[i] = remap[tiles[i]];
+                    }
+                }
+                return tiles;
+            }
+            default:
+                throw new IOException("invalid chunk record " + kind);
+        }
+    }
+
+    private static void putEntity(
+            FileChannel channel, ByteBuffer buffer, Entity entity, int col, int row)
+            throws IOException
+    {
+        ensureRemaining(channel, buffer, Byte.BYTES + 2 * Integer.BYTES);
+
+        if (entity instanceof Tree) {
+            buffer.put(KIND_TREE);
+        }
+        else if (entity instanceof Obstacle) {
+            buffer.put(KIND_OBSTACLE);
+        }
+        else {
+            buffer.put(KIND_HOUSE);
+        }
+        buffer.putInt(col);
+        buffer.putInt(row);
+        putString(channel, buffer, entity.getId());
+
+        ensureRemaining(channel, buffer, 3 * Integer.BYTES);
+        if (entity instanceof Tree) {
+            Tree tree = (Tree) entity;
+            buffer.putInt(tree.getAnimationPeriod());
+            buffer.putInt(tree.getActionPeriod());
+            buffer.putInt(tree.getHealth());
+        }
+        else if (entity instanceof Obstacle) {
+            buffer.putInt(((Obstacle) entity).getAnimationPeriod());
+        }
+    }
+
+    private static Entity getEntity(ByteBuffer buffer, ImageStore imageStore)
+            throws IOException
+    {
+        byte kind = buffer.get();
+        Point pt = new Point(buffer.getInt(), buffer.getInt());
+        String id = getString(buffer);
+        switch (kind) {
+            case KIND_HOUSE:
+                return Factory.createHouse(id, pt, imageStore.getImageList(HOUSE_KEY));
+            case KIND_OBSTACLE:
+                return Factory.createObstacle(id, pt,
+                        imageStore.getImageList(OBSTACLE_KEY), buffer.getInt());
+            case KIND_TREE:
+                return Factory.createTree(id, pt, imageStore.getImageList(Tree.TREE_KEY),
+                        buffer.getInt(), buffer.getInt(), buffer.getInt());
+            default:
+                throw new IOException("invalid entity record " + kind);
+        }
+    }
+
+    private static void putString(FileChannel channel, ByteBuffer buffer, String value)
+            throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("cannot save \"" + value.substring(0, 32)
+                    + "...\" in a binary world file: it is " + bytes.length
+                    + " bytes long and the limit is " + MAX_STRING_BYTES);
+        }
+
+        // The length is read back as unsigned; a string this long fills most of an empty buffer
+        ensureRemaining(channel, buffer, Short.BYTES);
+        buffer.putShort((short) bytes.length);
+        ensureRemaining(channel, buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes)
+            throws IOException
+    {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Converts between the text and binary formats. The direction is picked
+     * from the input file: binary input is written as text and text input
+     * is written as binary.
+     *
+     * Usage: BinaryWorldFile input output
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BinaryWorldFile <input> <output>");
+            return;
+        }
+
+        Path in = Paths.get(args[0]);
+        Path out = Paths.get(args[1]);
+        ImageStore imageStore = new ImageStore(new PImage(1, 1, PApplet.RGB));
+        WorldModel world = new WorldModel(0, 0, imageStore.createDefaultBackground());
+
+        if (isBinary(in)) {
+            load(in, world, imageStore);
+            WorldWriter.save(world, out);
+        }
+        else {
+            try (RecordReader reader = RecordReader.open(in)) {
+                new Parser().load(reader, world, imageStore);
+            }
+            save(world, out);
+        }
+    }
+}
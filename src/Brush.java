@@ -0,0 +1,4 @@
+public enum Brush {
+    // How a background edit mode paints. LINE and RECTANGLE span from where the mouse is pressed to where it is released
+    POINT, LINE, RECTANGLE, FILL
+}
@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A square block of tiles in the WorldModel. Chunks are only allocated once
+ * something other than the default background or an entity is placed in
+ * them, and their arrays are only allocated for the layer that is in use.
+ * Background tiles are kept as TilePalette indices. Each chunk also keeps a
+ * bucket of the entities placed in it for region queries.
+ */
+final class Chunk
+{
+    public static final int SHIFT = 5;
+    public static final int SIZE = 1 << SHIFT;
+    public static final int MASK = SIZE - 1;
+    public static final int AREA = SIZE * SIZE;
+
+    private final int epoch;
+    private short[] tiles;
+    private Entity[] occupancy;
+    private List<Entity> entities;
+    private int populated;
+
+    public Chunk(int epoch) {
+        this.epoch = epoch;
+    }
+
+    /**
+     * The snapshot epoch of the world that created this chunk. A world
+     * only writes to chunks from its current epoch and copies the others.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public Chunk copy(int epoch) {
+        Chunk copy = new Chunk(epoch);
+        copy.tiles = this.tiles == null ? null : this.tiles.clone();
+        copy.occupancy = this.occupancy == null ? null : this.occupancy.clone();
+        copy.entities = this.entities == null ? null : new ArrayList<>(this.entities);
+        copy.populated = this.populated;
+        return copy;
+    }
+
+    public static int cellIndex(int col, int row) {
+        return ((row & MASK) << SHIFT) | (col & MASK);
+    }
+
+    public short getTile(int index) {
+        return this.tiles == null ? TilePalette.DEFAULT_TILE : this.tiles[index];
+    }
+
+    public void setTile(int index, short tile) {
+        if (this.tiles == null) {
+            if (tile == TilePalette.DEFAULT_TILE) {
+                return;
+            }
+            this.tiles = new short[AREA];
+        }
+
+        short previous = this.tiles[index];
+        if (previous == TilePalette.DEFAULT_TILE && tile != TilePalette.DEFAULT_TILE) {
+            this.populated++;
+        }
+        else if (previous != TilePalette.DEFAULT_TILE && tile == TilePalette.DEFAULT_TILE) {
+            this.populated--;
+        }
+        this.tiles[index] = tile;
+    }
+
+    public short[] getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Replaces the whole tile layer, taking ownership of the given array.
+     */
+    public void setTiles(short[] tiles) {
+        if (this.tiles != null) {
+            for (short tile : this.tiles) {
+                if (tile != TilePalette.DEFAULT_TILE) {
+                    this.populated--;
+                }
+            }
+        }
+        this.tiles = tiles;
+        if (tiles != null) {
+            for (short tile : tiles) {
+                if (tile != TilePalette.DEFAULT_TILE) {
+                    this.populated++;
+                }
+            }
+        }
+    }
+
+    public Entity[] getOccupancy() {
+        return occupancy;
+    }
+
+    public Entity getOccupant(int index) {
+        return this.occupancy == null ? null : this.occupancy[index];
+    }
+
+    public void setOccupant(int index, Entity entity) {
+        if (this.occupancy == null) {
+            if (entity == null) {
+                return;
+            }
+            this.occupancy = new Entity[AREA];
+        }
+
+        Entity previous = this.occupancy[index];
+        if (previous == null && entity != null) {
+            this.populated++;
+        }
+        else if (previous != null && entity == null) {
+            this.populated--;
+        }
+        this.occupancy[index] = entity;
+
+        if (previous != null) {
+            this.removeFromBucket(previous);
+        }
+        if (entity != null) {
+            if (this.entities == null) {
+                this.entities = new ArrayList<>();
+            }
+            this.entities.add(entity);
+        }
+    }
+
+    /**
+     * The entities placed in this chunk, in no particular order. The list
+     * must not be modified.
+     */
+    public List<Entity> getEntities() {
+        return this.entities == null ? Collections.emptyList() : this.entities;
+    }
+
+    private void removeFromBucket(Entity entity) {
+        for (int i = 0; i < this.entities.size(); i++) {
+            if (this.entities.get(i) == entity) {
+                // Order does not matter, so fill the gap with the last entity
+                int last = this.entities.size() - 1;
+                this.entities.set(i, this.entities.get(last));
+                this.entities.remove(last);
+                return;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.populated == 0;
+    }
+}
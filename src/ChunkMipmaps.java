@@ -0,0 +1,292 @@
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Pre-rendered images of whole chunks at reduced sizes, for drawing the
+ * world zoomed out. Level n draws each tile at 1/2^n of its size, down to
+ * one pixel per tile.
+ *
+ * Tile and entity images are reduced once into a pyramid of halved
+ * copies, and a chunk image at a level is composed from the copies at
+ * that level. Images are built the first time they are asked for. When
+ * the world changes, the changed cells are only marked, and the next
+ * request repaints just those cells in every level built for the chunk.
+ * Chunks holding nothing share one image per level. Built images are
+ * dropped oldest first once they hold more than MAX_PIXELS.
+ */
+public final class ChunkMipmaps implements WorldEditListener
+{
+    private static final int MAX_PIXELS = 1 << 24;
+    private static final int OPAQUE = 0xff000000;
+    private static final int CELL_WORDS = Chunk.AREA / Long.SIZE;
+
+    private final WorldModel world;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int levels;
+
+    // Indexed by chunk * (levels + 1) + level; level 0 is unused
+    private PImage[] images;
+    private long[] dirtyCells;
+    private boolean[] dirtyChunks;
+    private int chunkCount;
+    private final PImage[] emptyImages;
+    // Indices of the built images, oldest first, in a ring as long as images
+    private int[] built;
+    private int builtHead;
+    private int builtCount;
+    private long builtPixels;
+
+    private final Map<PImage, int[][]> reductions;
+
+    public ChunkMipmaps(WorldModel world, int tileWidth, int tileHeight) {
+        this.world = world;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.levels = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.min(tileWidth, tileHeight)));
+        this.images = new PImage[0];
+        this.dirtyCells = new long[0];
+        this.dirtyChunks = new boolean[0];
+        this.emptyImages = new PImage[this.levels + 1];
+        this.built = new int[0];
+        this.reductions = new IdentityHashMap<>();
+        world.addEditListener(this);
+    }
+
+    /**
+     * The most reduced level, where each tile is one pixel.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the image of a chunk at a level from 1 to getLevels(),
+     * bringing it up to date with the world first.
+     */
+    public PImage getImage(int chunkCol, int chunkRow, int level) {
+        this.ensureChunks();
+        int chunk = chunkRow * this.world.getChunkCols() + chunkCol;
+        if (this.world.getChunkTiles(chunkCol, chunkRow) == null
+                && this.world.getChunkOccupancy(chunkCol, chunkRow) == null) {
+            return this.getEmptyImage(level);
+        }
+
+        if (this.dirtyChunks[chunk]) {
+            this.repaintDirtyCells(chunkCol, chunkRow);
+        }
+        int index = chunk * (this.levels + 1) + level;
+        if (this.images[index] == null) {
+            this.images[index] = this.paintChunk(chunkCol, chunkRow, level);
+            this.built[(this.builtHead + this.builtCount++) % this.built.length] = index;
+            this.builtPixels += this.images[index].pixels.length;
+            this.evict();
+        }
+        return this.images[index];
+    }
+
+    @Override
+    public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+        this.markCell(col, row);
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            this.markCell(changes.getCol(i), changes.getRow(i));
+        }
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        this.markCell(entity.getPosition().getX(), entity.getPosition().getY());
+    }
+
+    @Override
+    public void entityRemoved(Entity entity, int col, int row) {
+        this.markCell(col, row);
+    }
+
+    private void ensureChunks() {
+        // The world may have grown since the arrays were made; everything is rebuilt then
+        int count = this.world.getChunkRows() * this.world.getChunkCols();
+        if (count != this.chunkCount) {
+            this.chunkCount = count;
+            this.images = new PImage[count * (this.levels + 1)];
+            this.dirtyCells = new long[count * CELL_WORDS];
+            this.dirtyChunks = new boolean[count];
+            this.built = new int[this.images.length];
+            this.builtHead = 0;
+            this.builtCount = 0;
+            this.builtPixels = 0;
+        }
+    }
+
+    private void markCell(int col, int row) {
+        this.ensureChunks();
+        if (!this.world.withinBounds(col, row)) {
+            return;
+        }
+        int chunk = (row >> Chunk.SHIFT) * this.world.getChunkCols() + (col >> Chunk.SHIFT);
+        int cell = Chunk.cellIndex(col, row);
+        this.dirtyCells[chunk * CELL_WORDS + (cell >> 6)] |= 1L << cell;
+        this.dirtyChunks[chunk] = true;
+    }
+
+    private void repaintDirtyCells(int chunkCol, int chunkRow) {
+        int chunk = chunkRow * this.world.getChunkCols() + chunkCol;
+        for (int level = 1; level <= this.levels; level++) {
+            PImage image = this.images[chunk * (this.levels + 1) + level];
+            if (image == null) {
+                continue;
+            }
+            for (int word = 0; word < CELL_WORDS; word++) {
+                long bits = this.dirtyCells[chunk * CELL_WORDS + word];
+                while (bits != 0) {
+                    int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    this.paintCell(image, chunkCol, chunkRow, cell, level);
+                }
+            }
+            image.updatePixels();
+        }
+        Arrays.fill(this.dirtyCells, chunk * CELL_WORDS, (chunk + 1) * CELL_WORDS, 0L);
+        this.dirtyChunks[chunk] = false;
+    }
+
+    private PImage paintChunk(int chunkCol, int chunkRow, int level) {
+        PImage image = this.createChunkImage(level);
+        for (int cell = 0; cell < Chunk.AREA; cell++) {
+            this.paintCell(image, chunkCol, chunkRow, cell, level);
+        }
+        image.updatePixels();
+        return image;
+    }
+
+    private PImage getEmptyImage(int level) {
+        if (this.emptyImages[level] == null) {
+            int[] reduced = this.reduce(this.world.getDefaultBackground().getCurrentImage(), level);
+            PImage image = this.createChunkImage(level);
+            for (int cell = 0; cell < Chunk.AREA; cell++) {
+                this.blit(image, cell, level, reduced, false);
+            }
+            image.updatePixels();
+            this.emptyImages[level] = image;
+        }
+        return this.emptyImages[level];
+    }
+
+    private PImage createChunkImage(int level) {
+        PImage image = new PImage((Chunk.SIZE * this.tileWidth) >> level,
+                (Chunk.SIZE * this.tileHeight) >> level, PApplet.ARGB);
+        image.loadPixels();
+        return image;
+    }
+
+    private void paintCell(PImage image, int chunkCol, int chunkRow, int cell, int level) {
+        int col = (chunkCol << Chunk.SHIFT) + (cell & Chunk.MASK);
+        int row = (chunkRow << Chunk.SHIFT) + (cell >> Chunk.SHIFT);
+        if (!this.world.withinBounds(col, row)) {
+            // Past the edge of the world: left transparent
+            this.blit(image, cell, level, null, false);
+            return;
+        }
+        this.blit(image, cell, level, this.reduce(this.world.getBackgroundCell(col, row).getCurrentImage(), level), false);
+        Entity entity = this.world.getOccupancyCell(col, row);
+        if (entity != null) {
+            this.blit(image, cell, level, this.reduce(entity.getCurrentImage(), level), true);
+        }
+    }
+
+    private void blit(PImage image, int cell, int level, int[] reduced, boolean blend) {
+        // Copies a reduced image into its cell, clipped to the cell. Where the
+        // image is smaller than the cell the rest is transparent, so nothing
+        // is left of what was painted there before
+        int cellWidth = this.tileWidth >> level;
+        int cellHeight = this.tileHeight >> level;
+        int x = (cell & Chunk.MASK) * cellWidth;
+        int y = (cell >> Chunk.SHIFT) * cellHeight;
+        int sourceWidth = reduced == null ? cellWidth : reduced[0];
+        for (int r = 0; r < cellHeight; r++) {
+            int target = (y + r) * image.width + x;
+            for (int c = 0; c < cellWidth; c++) {
+                int pixel = 0;
+                if (reduced != null) {
+                    int source = 2 + r * sourceWidth + c;
+                    if (c < sourceWidth && source < reduced.length) {
+                        pixel = reduced[source];
+                    }
+                }
+                image.pixels[target + c] = blend ? Util.blendOver(pixel, image.pixels[target + c]) : pixel;
+            }
+        }
+    }
+
+    private int[] reduce(PImage image, int level) {
+        // Each level halves the one before it; element 0 is the width and 1 the height
+        int[][] pyramid = this.reductions.get(image);
+        if (pyramid == null) {
+            pyramid = new int[this.levels + 1][];
+            image.loadPixels();
+            int alpha = image.format == PApplet.ARGB ? 0 : OPAQUE;
+            int[] full = new int[2 + image.pixels.length];
+            full[0] = image.width;
+            full[1] = image.height;
+            for (int i = 0; i < image.pixels.length; i++) {
+                full[2 + i] = image.pixels[i] | alpha;
+            }
+            pyramid[0] = full;
+            for (int l = 1; l <= this.levels; l++) {
+                pyramid[l] = halve(pyramid[l - 1]);
+            }
+            this.reductions.put(image, pyramid);
+        }
+        return pyramid[level];
+    }
+
+    private static int[] halve(int[] source) {
+        int sourceWidth = source[0];
+        int sourceHeight = source[1];
+        int width = Math.max(1, sourceWidth / 2);
+        int height = Math.max(1, sourceHeight / 2);
+        int[] target = new int[2 + width * height];
+        target[0] = width;
+        target[1] = height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Box filter over the 2x2 block, per channel
+                int x0 = Math.min(2 * x, sourceWidth - 1);
+                int x1 = Math.min(2 * x + 1, sourceWidth - 1);
+                int y0 = Math.min(2 * y, sourceHeight - 1);
+                int y1 = Math.min(2 * y + 1, sourceHeight - 1);
+                int a = source[2 + y0 * sourceWidth + x0];
+                int b = source[2 + y0 * sourceWidth + x1];
+                int c = source[2 + y1 * sourceWidth + x0];
+                int d = source[2 + y1 * sourceWidth + x1];
+                int pixel = 0;
+                for (int shift = 0; shift < Integer.SIZE; shift += 8) {
+                    int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff)
+                            + ((c >>> shift) & 0xff) + ((d >>> shift) & 0xff);
+                    pixel |= ((sum + 2) >> 2) << shift;
+                }
+                target[2 + y * width + x] = pixel;
+            }
+        }
+        return target;
+    }
+
+    private void evict() {
+        // The image just built is the newest, so it is never the one dropped
+        while (this.builtPixels > MAX_PIXELS && this.builtCount > 1) {
+            int index = this.built[this.builtHead];
+            this.builtHead = (this.builtHead + 1) % this.built.length;
+            this.builtCount--;
+            this.builtPixels -= this.images[index].pixels.length;
+            this.images[index] = null;
+        }
+    }
+}
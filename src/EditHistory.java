@@ -0,0 +1,317 @@
+import java.util.Arrays;
+
+/**
+ * Undo and redo for the edits made to a WorldModel. Each edit is kept as a
+ * small delta: the cell, the old and new palette index for a background
+ * change, or the entity for an entity being added or removed. Deltas live
+ * in parallel arrays used as a ring buffer, so memory is fixed when the
+ * history is created and the oldest edits are forgotten once it is full.
+ *
+ * Edits made between beginGroup and endGroup undo and redo as one step.
+ * Edits made outside a group are each a step of their own. A step with
+ * more edits than the history can hold is not kept at all, and clears the
+ * history, since it could not be undone whole.
+ *
+ * Undo and redo put the background tiles of a step back as one bulk edit,
+ * so listeners hear of them in a single tilesChanged call.
+ */
+public final class EditHistory implements WorldEditListener
+{
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final byte BACKGROUND = 0;
+    private static final byte ENTITY_ADDED = 1;
+    private static final byte ENTITY_REMOVED = 2;
+
+    private final WorldModel world;
+    private final int capacity;
+
+    private final byte[] kinds;
+    private final int[] cols;
+    private final int[] rows;
+    private final short[] oldTiles;
+    private final short[] newTiles;
+    private final Entity[] entities;
+    private final int[] groups;
+
+    // Edits are stored from head (oldest) up to, but not including, cursor;
+    // the edits from cursor up to end have been undone and can be redone
+    private int head;
+    private int cursor;
+    private int end;
+    private int nextGroup;
+    private int groupDepth;
+    private int openGroup;
+    private int droppedGroup = -1;
+    private boolean applying;
+
+    // The tiles of the step being undone or redone, put back together at the end
+    private int[] replayCols = new int[0];
+    private int[] replayRows = new int[0];
+    private short[] replayTiles = new short[0];
+    private int replayCount;
+
+    public EditHistory(WorldModel world, int capacity) {
+        this.world = world;
+        this.capacity = capacity;
+        this.kinds = new byte[capacity];
+        this.cols = new int[capacity];
+        this.rows = new int[capacity];
+        this.oldTiles = new short[capacity];
+        this.newTiles = new short[capacity];
+        this.entities = new Entity[capacity];
+        this.groups = new int[capacity];
+        world.addEditListener(this);
+    }
+
+    /**
+     * Starts a group of edits that undo as one step. Groups may be nested,
+     * in which case the outermost group is the step.
+     */
+    public void beginGroup() {
+        if (this.groupDepth++ == 0) {
+            this.openGroup = this.nextGroup++;
+        }
+    }
+
+    public void endGroup() {
+        if (this.groupDepth == 0) {
+            throw new IllegalStateException("no group to end");
+        }
+        this.groupDepth--;
+    }
+
+    public boolean canUndo() {
+        return this.cursor != this.head;
+    }
+
+    public boolean canRedo() {
+        return this.cursor != this.end;
+    }
+
+    /**
+     * Reverts the most recent step. Returns false if there was nothing to
+     * undo.
+     */
+    public boolean undo() {
+        if (!this.canUndo() || this.groupDepth > 0) {
+            return false;
+        }
+
+        int group = this.groups[this.previous(this.cursor)];
+        // Steps are put back exactly as they were recorded, without autotiling
+        Autotiler autotiler = this.world.getAutotiler();
+        this.world.setAutotiler(null);
+        this.applying = true;
+        try {
+            while (this.cursor != this.head && this.groups[this.previous(this.cursor)] == group) {
+                this.cursor = this.previous(this.cursor);
+                this.revert(this.cursor);
+            }
+            this.replayTiles();
+        }
+        finally {
+            this.applying = false;
+            this.world.setAutotiler(autotiler);
+        }
+        return true;
+    }
+
+    /**
+     * Applies the most recently undone step again. Returns false if there
+     * was nothing to redo.
+     */
+    public boolean redo() {
+        if (!this.canRedo() || this.groupDepth > 0) {
+            return false;
+        }
+
+        int group = this.groups[this.cursor];
+        Autotiler autotiler = this.world.getAutotiler();
+        this.world.setAutotiler(null);
+        this.applying = true;
+        try {
+            while (this.cursor != this.end && this.groups[this.cursor] == group) {
+                this.reapply(this.cursor);
+                this.cursor = this.next(this.cursor);
+            }
+            this.replayTiles();
+        }
+        finally {
+            this.applying = false;
+            this.world.setAutotiler(autotiler);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets every edit, for example after loading another world.
+     */
+    public void clear() {
+        Arrays.fill(this.entities, null);
+        this.head = 0;
+        this.cursor = 0;
+        this.end = 0;
+    }
+
+    public void detach() {
+        this.world.removeEditListener(this);
+    }
+
+    @Override
+    public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+        int slot = this.record(BACKGROUND, col, row);
+        if (slot >= 0) {
+            this.oldTiles[slot] = oldTile;
+            this.newTiles[slot] = newTile;
+        }
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes) {
+        // A bulk edit is one step however many tiles it changed
+        this.beginGroup();
+        try {
+            WorldEditListener.super.tilesChanged(changes);
+        }
+        finally {
+            this.endGroup();
+        }
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        int slot = this.record(ENTITY_ADDED, entity.getPosition().getX(),
+                entity.getPosition().getY());
+        if (slot >= 0) {
+            this.entities[slot] = entity;
+        }
+    }
+
+    @Override
+    public void entityRemoved(Entity entity, int col, int row) {
+        int slot = this.record(ENTITY_REMOVED, col, row);
+        if (slot >= 0) {
+            this.entities[slot] = entity;
+        }
+    }
+
+    private int record(byte kind, int col, int row) {
+        if (this.applying) {
+            return -1;
+        }
+
+        // A new edit makes the undone edits unreachable
+        for (int i = this.cursor; i != this.end; i = this.next(i)) {
+            this.entities[i] = null;
+        }
+        this.end = this.cursor;
+
+        int group = this.groupDepth > 0 ? this.openGroup : this.nextGroup++;
+        if (group == this.droppedGroup) {
+            return -1;
+        }
+        if (this.next(this.cursor) == this.head) {
+            if (this.groups[this.head] == group) {
+                // The step is larger than the whole history and could only be undone in part
+                this.clear();
+                this.droppedGroup = group;
+                return -1;
+            }
+            this.dropOldestGroup();
+        }
+
+        int slot = this.cursor;
+        this.kinds[slot] = kind;
+        this.cols[slot] = col;
+        this.rows[slot] = row;
+        this.groups[slot] = group;
+        this.entities[slot] = null;
+        this.cursor = this.next(slot);
+        this.end = this.cursor;
+        return slot;
+    }
+
+    private void dropOldestGroup() {
+        // A step is only undone whole, so the oldest step goes entirely
+        int oldest = this.groups[this.head];
+        do {
+            this.entities[this.head] = null;
+            this.head = this.next(this.head);
+        } while (this.head != this.cursor && this.groups[this.head] == oldest);
+    }
+
+    private void revert(int slot) {
+        int col = this.cols[slot];
+        int row = this.rows[slot];
+        switch (this.kinds[slot]) {
+            case BACKGROUND:
+                this.replayTile(col, row, this.oldTiles[slot]);
+                break;
+            case ENTITY_ADDED:
+                this.removeAt(col, row);
+                break;
+            case ENTITY_REMOVED:
+                this.addAt(this.entities[slot], col, row);
+                break;
+        }
+    }
+
+    private void reapply(int slot) {
+        int col = this.cols[slot];
+        int row = this.rows[slot];
+        switch (this.kinds[slot]) {
+            case BACKGROUND:
+                this.replayTile(col, row, this.newTiles[slot]);
+                break;
+            case ENTITY_ADDED:
+                this.addAt(this.entities[slot], col, row);
+                break;
+            case ENTITY_REMOVED:
+                this.removeAt(col, row);
+                break;
+        }
+    }
+
+    private void replayTile(int col, int row, short tile) {
+        if (this.replayCount == this.replayCols.length) {
+            int capacity = Math.max(16, this.replayCount * 2);
+            this.replayCols = Arrays.copyOf(this.replayCols, capacity);
+            this.replayRows = Arrays.copyOf(this.replayRows, capacity);
+            this.replayTiles = Arrays.copyOf(this.replayTiles, capacity);
+        }
+        this.replayCols[this.replayCount] = col;
+        this.replayRows[this.replayCount] = row;
+        this.replayTiles[this.replayCount] = tile;
+        this.replayCount++;
+    }
+
+    private void replayTiles() {
+        // In the order collected, so a tile changed twice in the step ends up right
+        int count = this.replayCount;
+        this.replayCount = 0;
+        if (count > 0) {
+            this.world.putTiles(this.replayCols, this.replayRows, this.replayTiles, count);
+        }
+    }
+
+    private void removeAt(int col, int row) {
+        this.world.getOccupant(new Point(col, row)).ifPresent(this.world::removeEntity);
+    }
+
+    private void addAt(Entity entity, int col, int row) {
+        Point pos = new Point(col, row);
+        if (!this.world.isOccupied(pos)) {
+            entity.setPosition(pos);
+            this.world.addEntity(entity);
+        }
+    }
+
+    private int next(int slot) {
+        return slot + 1 == this.capacity ? 0 : slot + 1;
+    }
+
+    private int previous(int slot) {
+        return slot == 0 ? this.capacity - 1 : slot - 1;
+    }
+}
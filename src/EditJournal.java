@@ -0,0 +1,321 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Append-only log of the edits made to a WorldModel, kept next to the file
+ * the world is saved to. The first line names the base file the edits
+ * apply to, and every following line is either a save file record or a
+ * "remove col row" record. Each edit is flushed to the file as it happens,
+ * so a crash loses at most what the OS had not yet written out.
+ *
+ * Compacting the journal closes it off as a numbered segment, saves a copy
+ * of the world through a WorldSaver and starts a new journal on top of the
+ * save file. A segment is deleted once the save that covers it is done.
+ */
+public final class EditJournal implements WorldEditListener
+{
+    public static final String EXTENSION = ".journal";
+    public static final int DEFAULT_COMPACT_THRESHOLD = 10000;
+
+    private static final String BASE_KEY = "base";
+    private static final int BASE_NUM_PROPERTIES = 2;
+    private static final int BASE_PATH = 1;
+
+    private static final String REMOVE_KEY = "remove";
+    private static final int REMOVE_NUM_PROPERTIES = 3;
+    private static final int REMOVE_COL = 1;
+    private static final int REMOVE_ROW = 2;
+
+    private final WorldModel world;
+    private final Path target;
+    private final Path journal;
+    private final WorldSaver saver;
+    private final int compactThreshold;
+
+    private FileChannel channel;
+    private Writer out;
+    private int edits;
+    private int segments;
+
+    private EditJournal(
+            WorldModel world, Path target, WorldSaver saver, int compactThreshold)
+    {
+        this.world = world;
+        this.target = target;
+        this.journal = journalPath(target);
+        this.saver = saver;
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * Starts a new journal for world, which was loaded from base and is
+     * saved to target, and starts recording its edits. Any journal left
+     * for target should be recovered first, as it is replaced.
+     */
+    public static EditJournal open(
+            WorldModel world, Path target, Path base, WorldSaver saver, int compactThreshold)
+            throws IOException
+    {
+        EditJournal journal = new EditJournal(world, target, saver, compactThreshold);
+        journal.start(base);
+        world.addEditListener(journal);
+        return journal;
+    }
+
+    public static Path journalPath(Path target) {
+        return target.resolveSibling(target.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Replays the journal left behind for target by a session that did not
+     * exit cleanly into world, which should be empty: the base the journal
+     * names is loaded first and then its edits. The recovered world is
+     * written to target before the journal is removed.
+     *
+     * Returns the file world now matches, for a new journal to use as its
+     * base, or null when there was no journal and world is left as it was.
+     */
+    public static Path recover(
+            Path target, WorldModel world, Parser parser, ImageStore imageStore)
+            throws IOException
+    {
+        // Segments still present belong to saves that did not finish, so the oldest base applies
+        List<Path> segments = listSegments(journalPath(target));
+        if (Files.exists(journalPath(target))) {
+            segments.add(journalPath(target));
+        }
+        if (segments.isEmpty()) {
+            return null;
+        }
+
+        Path base = readBase(segments.get(0));
+        if (base != null) {
+            parser.load(base, world, imageStore);
+        }
+
+        int edits = 0;
+        for (Path segment : segments) {
+            edits += replay(segment, world, parser, imageStore);
+        }
+
+        if (edits > 0) {
+            WorldWriter.save(world, target);
+            base = target;
+        }
+        for (Path segment : segments) {
+            Files.delete(segment);
+        }
+        return base;
+    }
+
+    @Override
+    public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+        this.append(this.world.getPalette().get(newTile).getStoreLine() + " " + col + " " + row);
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes) {
+        // Written as one batch and flushed once
+        TilePalette palette = this.world.getPalette();
+        try {
+            for (int i = 0; i < changes.size(); i++) {
+                this.write(palette.get(changes.getNewTile(i)).getStoreLine() + " "
+                        + changes.getCol(i) + " " + changes.getRow(i));
+            }
+            this.flush();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        this.append(entity.createStoreLine());
+    }
+
+    @Override
+    public void entityRemoved(Entity entity, int col, int row) {
+        this.append(REMOVE_KEY + " " + col + " " + row);
+    }
+
+    public int getEdits() {
+        return edits;
+    }
+
+    /**
+     * Forces the journal to disk.
+     */
+    public void sync() throws IOException {
+        this.out.flush();
+        this.channel.force(false);
+    }
+
+    /**
+     * Saves a copy of the world to the save file in the background and
+     * starts a new journal on top of it. Does nothing when no edits were
+     * made since the last compaction.
+     */
+    public void compact() throws IOException {
+        if (this.edits == 0) {
+            return;
+        }
+
+        this.out.close();
+        int segment = ++this.segments;
+        Files.move(this.journal, this.segmentPath(segment), StandardCopyOption.REPLACE_EXISTING);
+        this.start(this.target);
+
+        this.saver.save(this.world, this.target, () -> this.deleteSegments(segment));
+    }
+
+    /**
+     * Stops recording, writes any journaled edits into the save file and
+     * removes the journal.
+     */
+    public void close() throws IOException {
+        this.world.removeEditListener(this);
+        this.saver.awaitIdle();
+        this.out.close();
+
+        List<Path> unsaved = listSegments(this.journal);
+        if (this.edits > 0 || !unsaved.isEmpty()) {
+            WorldWriter.save(this.world, this.target);
+        }
+        for (Path segment : unsaved) {
+            Files.delete(segment);
+        }
+        Files.delete(this.journal);
+    }
+
+    private void start(Path base) throws IOException {
+        this.channel = FileChannel.open(this.journal, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new BufferedWriter(Channels.newWriter(this.channel, StandardCharsets.UTF_8));
+        // The base is stored relative to the journal so the pair can be moved together
+        Path directory = this.journal.toAbsolutePath().getParent();
+        this.out.write(BASE_KEY + " " + directory.relativize(base.toAbsolutePath()));
+        this.out.write("\n");
+        this.out.flush();
+        this.edits = 0;
+    }
+
+    private void append(String record) {
+        try {
+            this.write(record);
+            this.flush();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(String record) throws IOException {
+        this.out.write(record);
+        this.out.write("\n");
+        this.edits++;
+    }
+
+    private void flush() throws IOException {
+        this.out.flush();
+        if (this.edits >= this.compactThreshold) {
+            this.compact();
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return this.journal.resolveSibling(this.journal.getFileName() + "." + segment);
+    }
+
+    private void deleteSegments(int upTo) {
+        for (int segment = 1; segment <= upTo; segment++) {
+            try {
+                Files.deleteIfExists(this.segmentPath(segment));
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static List<Path> listSegments(Path journal) throws IOException {
+        String prefix = journal.getFileName() + ".";
+        Path directory = journal.toAbsolutePath().getParent();
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    segments.add(file);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(
+                file -> Long.parseLong(file.getFileName().toString().substring(prefix.length()))));
+        return segments;
+    }
+
+    private static Path readBase(Path segment) throws IOException {
+        try (RecordReader in = RecordReader.open(segment)) {
+            if (in.nextRecord() && in.getFieldCount() == BASE_NUM_PROPERTIES
+                    && in.getKey(0).equals(BASE_KEY)) {
+                return segment.resolveSibling(in.getString(BASE_PATH));
+            }
+        }
+        return null;
+    }
+
+    private static int replay(
+            Path segment, WorldModel world, Parser parser, ImageStore imageStore)
+            throws IOException
+    {
+        int edits = 0;
+        try (RecordReader in = RecordReader.open(segment)) {
+            while (in.nextRecord()) {
+                if (in.getFieldCount() == 0 || in.getKey(0).equals(BASE_KEY)) {
+                    continue;
+                }
+
+                try {
+                    boolean valid;
+                    if (in.getKey(0).equals(REMOVE_KEY)) {
+                        valid = in.getFieldCount() == REMOVE_NUM_PROPERTIES;
+                        if (valid) {
+                            Point pos = new Point(in.getInt(REMOVE_COL), in.getInt(REMOVE_ROW));
+                            world.getOccupant(pos).ifPresent(world::removeEntity);
+                        }
+                    }
+                    else {
+                        valid = parser.processRecord(in, world, imageStore);
+                    }
+
+                    if (valid) {
+                        edits++;
+                    }
+                    else {
+                        System.err.println(String.format("invalid journal entry on line %d",
+                                in.getLineNumber()));
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    System.err.println(
+                            String.format("issue on journal line %d: %s", in.getLineNumber(),
+                                    e.getMessage()));
+                }
+            }
+        }
+        return edits;
+    }
+}
@@ -1,4 +1,23 @@
 public enum EditMode {
     // If you wish to add more Edit Modes, add them here. They must be given a case in keyPressed in VirtualWorld
-    HOUSE, OBSTACLE, TREE, GRASS, FLOWERS, BRIDGE, DIRT, DEFAULT, REMOVE
+    // Modes that paint the background name the texture key they paint with
+    HOUSE, OBSTACLE, TREE, GRASS("grass"), FLOWERS("flowers"), BRIDGE("bridge"), DIRT(Autotiler.PATH_KEY), DEFAULT, REMOVE;
+
+    private final String backgroundKey;
+
+    EditMode() {
+        this(null);
+    }
+
+    EditMode(String backgroundKey) {
+        this.backgroundKey = backgroundKey;
+    }
+
+    public String getBackgroundKey() {
+        return backgroundKey;
+    }
+
+    public boolean isBackgroundMode() {
+        return this.backgroundKey != null;
+    }
 }
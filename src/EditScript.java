@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A list of map edits read from a text file, one per line, that can be
+ * applied to any number of worlds. The script is parsed once into arrays
+ * of operation codes and arguments, so applying it does no parsing.
+ *
+ * The operations are:
+ *   paint key col row
+ *   fill key col row numCols numRows
+ *   flood key col row
+ *   line key col row toCol toRow
+ *   house col row
+ *   obstacle col row animationPeriod
+ *   tree col row animationPeriod actionPeriod health
+ *   remove col row
+ * Blank lines and lines starting with # are ignored.
+ */
+public final class EditScript
+{
+    private static final String COMMENT_PREFIX = "#";
+    private static final int MAX_ARGS = 5;
+
+    private static final String[] OPERATIONS = {
+            "paint", "fill", "flood", "line", "house", "obstacle", "tree", "remove"
+    };
+    private static final int PAINT = 0;
+    private static final int FILL = 1;
+    private static final int FLOOD = 2;
+    private static final int LINE = 3;
+    private static final int HOUSE = 4;
+    private static final int OBSTACLE = 5;
+    private static final int TREE = 6;
+    private static final int REMOVE = 7;
+
+    // Texture key first, then the number of int arguments
+    private static final boolean[] HAS_KEY = {true, true, true, true, false, false, false, false};
+    private static final int[] NUM_ARGS = {2, 4, 2, 4, 2, 3, 5, 2};
+
+    private int[] codes;
+    private String[] keys;
+    private int[] args;
+    private int size;
+
+    private EditScript() {
+        this.codes = new int[16];
+        this.keys = new String[16];
+        this.args = new int[16 * MAX_ARGS];
+    }
+
+    /**
+     * Reads a script. Throws IllegalArgumentException naming the line of
+     * the first malformed operation.
+     */
+    public static EditScript read(Path path) throws IOException {
+        EditScript script = new EditScript();
+        try (RecordReader in = RecordReader.open(path)) {
+            while (in.nextRecord()) {
+                if (in.getFieldCount() == 0 || in.getKey(0).startsWith(COMMENT_PREFIX)) {
+                    continue;
+                }
+                try {
+                    script.add(in);
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(
+                            String.format("issue on script line %d: %s", in.getLineNumber(),
+                                    e.getMessage()));
+                }
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Reads a script holding the single operation in the current record of
+     * in. Throws IllegalArgumentException if the operation is malformed.
+     */
+    public static EditScript parse(RecordReader in) {
+        EditScript script = new EditScript();
+        script.add(in);
+        return script;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the tiles operation i can change as {col, row, numCols,
+     * numRows}, before autotiling, or null if it can reach any tile.
+     */
+    public int[] getArea(int i) {
+        int base = i * MAX_ARGS;
+        int col = this.args[base];
+        int row = this.args[base + 1];
+        switch (this.codes[i]) {
+            case FILL:
+                return new int[] {col, row, this.args[base + 2], this.args[base + 3]};
+            case FLOOD:
+                return null;
+            case LINE: {
+                int toCol = this.args[base + 2];
+                int toRow = this.args[base + 3];
+                // Ends far apart would overflow int, so the size is capped instead
+                return new int[] {Math.min(col, toCol), Math.min(row, toRow),
+                        (int) Math.min(Math.abs((long) toCol - col) + 1, Integer.MAX_VALUE),
+                        (int) Math.min(Math.abs((long) toRow - row) + 1, Integer.MAX_VALUE)};
+            }
+            default:
+                return new int[] {col, row, 1, 1};
+        }
+    }
+
+    /**
+     * Applies every operation to world in order. Edits outside the world
+     * are ignored, as are entities placed on occupied tiles.
+     */
+    public void apply(WorldModel world, ImageStore imageStore) {
+        for (int i = 0; i < this.size; i++) {
+            this.apply(i, world, imageStore);
+        }
+    }
+
+    /**
+     * Applies operation i to world.
+     */
+    public void apply(int i, WorldModel world, ImageStore imageStore) {
+        TilePalette palette = world.getPalette();
+        int base = i * MAX_ARGS;
+        int col = this.args[base];
+        int row = this.args[base + 1];
+        short tile = this.keys[i] == null ? 0
+                : palette.intern(this.keys[i], imageStore.getImageList(this.keys[i]));
+
+        switch (this.codes[i]) {
+            case PAINT:
+                world.setBackgroundTile(col, row, tile);
+                break;
+            case FILL:
+                world.fillRect(col, row, this.args[base + 2], this.args[base + 3], tile);
+                break;
+            case FLOOD:
+                world.floodFill(col, row, tile);
+                break;
+            case LINE:
+                world.paintLine(col, row, this.args[base + 2], this.args[base + 3], tile);
+                break;
+            case HOUSE:
+                if (world.withinBounds(col, row) && !world.isOccupied(col, row)) {
+                    world.addEntity(Factory.createHouse("house_" + col + "_" + row,
+                            new Point(col, row), imageStore.getImageList("house")));
+                }
+                break;
+            case OBSTACLE:
+                if (world.withinBounds(col, row) && !world.isOccupied(col, row)) {
+                    world.addEntity(Factory.createObstacle("obstacle_" + col + "_" + row,
+                            new Point(col, row), imageStore.getImageList("obstacle"),
+                            this.args[base + 2]));
+                }
+                break;
+            case TREE:
+                if (world.withinBounds(col, row) && !world.isOccupied(col, row)) {
+                    world.addEntity(Factory.createTree("tree_" + col + "_" + row,
+                            new Point(col, row), imageStore.getImageList("tree"),
+                            this.args[base + 2], this.args[base + 3], this.args[base + 4]));
+                }
+                break;
+            case REMOVE:
+                if (world.isOccupied(col, row)) {
+                    world.removeEntity(world.getOccupancyCell(col, row));
+                }
+                break;
+        }
+    }
+
+    private void add(RecordReader in) {
+        String name = in.getKey(0);
+        int code = Arrays.asList(OPERATIONS).indexOf(name);
+        if (code < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "unknown operation \"%s\" on script line %d", name, in.getLineNumber()));
+        }
+        int first = HAS_KEY[code] ? 2 : 1;
+        if (in.getFieldCount() != first + NUM_ARGS[code]) {
+            throw new IllegalArgumentException(String.format(
+                    "wrong number of arguments to %s on script line %d", name, in.getLineNumber()));
+        }
+
+        if (this.size == this.codes.length) {
+            int capacity = this.size * 2;
+            this.codes = Arrays.copyOf(this.codes, capacity);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.args = Arrays.copyOf(this.args, capacity * MAX_ARGS);
+        }
+        this.codes[this.size] = code;
+        this.keys[this.size] = HAS_KEY[code] ? in.getKey(1) : null;
+        for (int i = 0; i < NUM_ARGS[code]; i++) {
+            this.args[this.size * MAX_ARGS + i] = in.getInt(first + i);
+        }
+        this.size++;
+    }
+}
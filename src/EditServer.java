@@ -0,0 +1,313 @@
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    Edit Server
+
+    Holds one map and lets several editors change it at once over a local socket:
+
+        java EditServer [-port n] [-autotile] map
+
+    Clients send one command per line and get "ok" or "error <message>" back for each:
+
+        view col row numCols numRows    watch a region, which is sent back first as save file lines
+        save                            write the map back to its file
+        quit                            close the connection
+        any EditScript operation        for example "fill grass 0 0 10 10" or "tree 5 5 500 1000 2"
+
+    Every change inside a client's region is sent to it as it happens: "background key col row" for a tile, the
+    save file line for an added entity, and "remove col row" for a removed one.
+
+    Chunks are guarded by a fixed set of striped locks. An edit takes the locks of the chunks it can touch, plus
+    two tiles around them for autotiling, in stripe order, so edits to different parts of the map run in parallel.
+    Flood fills can reach any tile and take every lock.
+ */
+
+public final class EditServer
+{
+    private static final String PORT_FLAG = "-port";
+    private static final String AUTOTILE_FLAG = "-autotile";
+    private static final int DEFAULT_PORT = 5150;
+
+    private static final String VIEW_COMMAND = "view";
+    private static final String SAVE_COMMAND = "save";
+    private static final String QUIT_COMMAND = "quit";
+    private static final int VIEW_NUM_PROPERTIES = 5;
+    private static final int MAX_VIEW_TILES = 1 << 16;
+
+    private static final int TILE_WIDTH = 32;
+    private static final int TILE_HEIGHT = 32;
+
+    private static final int STRIPE_BITS = 6;
+    // The autotiler changes the neighbours of an edited tile, reading their neighbours in turn
+    private static final int AUTOTILE_MARGIN = 2;
+    private static final long ALL_STRIPES = -1L;
+
+    private final WorldModel world;
+    private final ImageStore imageStore;
+    private final Path path;
+    private final ReentrantLock[] stripes;
+    private final List<EditSession> sessions;
+    private final Object saveLock;
+
+    public EditServer(WorldModel world, ImageStore imageStore, Path path) {
+        this.world = world;
+        this.imageStore = imageStore;
+        this.path = path;
+        this.stripes = new ReentrantLock[1 << STRIPE_BITS];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.sessions = new CopyOnWriteArrayList<>();
+        this.saveLock = new Object();
+        world.addEditListener(new WorldEditListener() {
+            public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+                EditServer.this.broadcastTile(col, row, newTile);
+            }
+
+            public void tilesChanged(TileChanges changes) {
+                for (EditSession session : EditServer.this.sessions) {
+                    if (!session.isViewing(changes.getMinCol(), changes.getMinRow(),
+                            changes.getMaxCol(), changes.getMaxRow())) {
+                        continue;
+                    }
+                    for (int i = 0; i < changes.size(); i++) {
+                        int col = changes.getCol(i);
+                        int row = changes.getRow(i);
+                        if (session.isViewing(col, row, col, row)) {
+                            session.send(EditServer.this.tileLine(col, row, changes.getNewTile(i)));
+                        }
+                    }
+                }
+            }
+
+            public void entityAdded(Entity entity) {
+                Point pos = entity.getPosition();
+                EditServer.this.broadcast(pos.x, pos.y, entity.createStoreLine());
+            }
+
+            public void entityRemoved(Entity entity, int col, int row) {
+                EditServer.this.broadcast(col, row, "remove " + col + " " + row);
+            }
+        });
+    }
+
+    /**
+     * Accepts clients on the loopback interface until the thread is
+     * interrupted or the socket fails. Each client is served on its own
+     * threads.
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 64, InetAddress.getLoopbackAddress())) {
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                EditSession session = new EditSession(this, socket);
+                this.sessions.add(session);
+                session.start();
+            }
+        }
+    }
+
+    /**
+     * Runs the command in the current record of in for session and returns
+     * the reply, or null if the session should close.
+     */
+    String handle(EditSession session, RecordReader in) {
+        String command = in.getKey(0);
+        try {
+            switch (command) {
+                case QUIT_COMMAND:
+                    return null;
+                case SAVE_COMMAND:
+                    try {
+                        this.save();
+                    }
+                    catch (IOException e) {
+                        // The map stays in memory, so the client can try again
+                        return "error " + e.getMessage();
+                    }
+                    return "ok";
+                case VIEW_COMMAND:
+                    if (in.getFieldCount() != VIEW_NUM_PROPERTIES) {
+                        return "error usage: view col row numCols numRows";
+                    }
+                    return this.view(session, in.getInt(1), in.getInt(2), in.getInt(3), in.getInt(4));
+                default: {
+                    EditScript script = EditScript.parse(in);
+                    int[] area = script.getArea(0);
+                    long locked = area == null ? ALL_STRIPES
+                            : this.stripesFor((long) area[0] - AUTOTILE_MARGIN, (long) area[1] - AUTOTILE_MARGIN,
+                                    (long) area[2] + 2 * AUTOTILE_MARGIN, (long) area[3] + 2 * AUTOTILE_MARGIN);
+                    this.lock(locked);
+                    try {
+                        script.apply(0, this.world, this.imageStore);
+                    }
+                    finally {
+                        this.unlock(locked);
+                    }
+                    return "ok";
+                }
+            }
+        }
+        catch (IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+    }
+
+    void remove(EditSession session) {
+        this.sessions.remove(session);
+    }
+
+    private String view(EditSession session, int col, int row, int numCols, int numRows) {
+        if (numCols < 0 || numRows < 0 || (long) numCols * numRows > MAX_VIEW_TILES) {
+            return "error view is larger than " + MAX_VIEW_TILES + " tiles";
+        }
+
+        // The region is sent while its chunks are locked, so no change is sent twice or missed
+        long locked = this.stripesFor(col, row, numCols, numRows);
+        this.lock(locked);
+        try {
+            int minCol = Math.max(col, 0);
+            int minRow = Math.max(row, 0);
+            int maxCol = Math.min(col + numCols, this.world.getNumCols()) - 1;
+            int maxRow = Math.min(row + numRows, this.world.getNumRows()) - 1;
+            for (int r = minRow; r <= maxRow; r++) {
+                for (int c = minCol; c <= maxCol; c++) {
+                    session.send(this.tileLine(c, r, this.world.getBackgroundTile(c, r)));
+                    Entity entity = this.world.getOccupancyCell(c, r);
+                    if (entity != null) {
+                        session.send(entity.createStoreLine(c, r));
+                    }
+                }
+            }
+            session.setView(col, row, numCols, numRows);
+        }
+        finally {
+            this.unlock(locked);
+        }
+        return "ok";
+    }
+
+    private void save() throws IOException {
+        WorldModel snapshot;
+        this.lock(ALL_STRIPES);
+        try {
+            snapshot = this.world.copy();
+        }
+        finally {
+            this.unlock(ALL_STRIPES);
+        }
+        synchronized (this.saveLock) {
+            WorldWriter.save(snapshot, this.path);
+        }
+    }
+
+    private long stripesFor(long col, long row, long numCols, long numRows) {
+        // Areas come from clients, so they are clipped in long to avoid overflow
+        int minCol = (int) Math.min(Math.max(col, 0), this.world.getNumCols());
+        int minRow = (int) Math.min(Math.max(row, 0), this.world.getNumRows());
+        int maxCol = (int) Math.max(Math.min(col + numCols, this.world.getNumCols()), 0) - 1;
+        int maxRow = (int) Math.max(Math.min(row + numRows, this.world.getNumRows()), 0) - 1;
+
+        long locked = 0;
+        for (int chunkRow = minRow >> Chunk.SHIFT; chunkRow <= maxRow >> Chunk.SHIFT; chunkRow++) {
+            for (int chunkCol = minCol >> Chunk.SHIFT; chunkCol <= maxCol >> Chunk.SHIFT; chunkCol++) {
+                // Spreads neighbouring chunks over different stripes
+                int chunk = chunkRow * this.world.getChunkCols() + chunkCol;
+                locked |= 1L << ((chunk * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS));
+                if (locked == ALL_STRIPES) {
+                    return locked;
+                }
+            }
+        }
+        return locked;
+    }
+
+    private void lock(long locked) {
+        // Always in stripe order, so two edits can never wait on each other
+        for (int i = 0; i < this.stripes.length; i++) {
+            if ((locked & (1L << i)) != 0) {
+                this.stripes[i].lock();
+            }
+        }
+    }
+
+    private void unlock(long locked) {
+        for (int i = this.stripes.length - 1; i >= 0; i--) {
+            if ((locked & (1L << i)) != 0) {
+                this.stripes[i].unlock();
+            }
+        }
+    }
+
+    private String tileLine(int col, int row, short tile) {
+        return this.world.getPalette().get(tile).getStoreLine() + " " + col + " " + row;
+    }
+
+    private void broadcastTile(int col, int row, short tile) {
+        String line = null;
+        for (EditSession session : this.sessions) {
+            if (session.isViewing(col, row, col, row)) {
+                if (line == null) {
+                    line = this.tileLine(col, row, tile);
+                }
+                session.send(line);
+            }
+        }
+    }
+
+    private void broadcast(int col, int row, String line) {
+        for (EditSession session : this.sessions) {
+            if (session.isViewing(col, row, col, row)) {
+                session.send(line);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        boolean autotile = false;
+        int next = 0;
+        while (next < args.length && args[next].startsWith("-")) {
+            switch (args[next]) {
+                case PORT_FLAG:
+                    port = Integer.parseInt(args[++next]);
+                    break;
+                case AUTOTILE_FLAG:
+                    autotile = true;
+                    break;
+                default:
+                    System.err.println("unknown option " + args[next]);
+                    System.exit(2);
+            }
+            next++;
+        }
+        if (args.length - next != 1) {
+            System.err.println("usage: EditServer [-port n] [-autotile] map");
+            System.exit(2);
+        }
+
+        Path path = Paths.get(args[next]);
+        // Nothing is drawn, so every texture key can share one blank image
+        ImageStore imageStore = new ImageStore(new PImage(TILE_WIDTH, TILE_HEIGHT, PApplet.RGB));
+        WorldModel world = new WorldModel(0, 0, imageStore.createDefaultBackground());
+        new Parser().load(path, world, imageStore);
+        if (autotile) {
+            world.setAutotiler(new Autotiler(world.getPalette(), imageStore));
+        }
+
+        System.out.println(String.format("Serving %s on port %d", path, port));
+        new EditServer(world, imageStore, path).serve(port);
+    }
+}
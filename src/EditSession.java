@@ -0,0 +1,130 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * One client of an EditServer. Commands are read and run on one thread.
+ * Replies and changes are queued and written by a second thread, so a
+ * slow client never holds up the edits of the others. A client that falls
+ * so far behind that its queue fills is disconnected.
+ */
+final class EditSession
+{
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    // Queued after the last reply; compared by identity
+    private static final String END = new String();
+
+    private final EditServer server;
+    private final Socket socket;
+    private final BlockingQueue<String> outgoing;
+    private final Thread reader;
+    private final Thread writer;
+
+    // {minCol, minRow, maxCol, maxRow} of the watched region, empty until the first view
+    private volatile int[] view;
+
+    public EditSession(EditServer server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+        this.outgoing = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.view = new int[] {0, 0, -1, -1};
+        this.reader = new Thread(this::read, "edit-session");
+        this.writer = new Thread(this::write, "edit-session-writer");
+        this.reader.setDaemon(true);
+        this.writer.setDaemon(true);
+    }
+
+    public void start() {
+        this.reader.start();
+        this.writer.start();
+    }
+
+    /**
+     * Returns whether the watched region overlaps the given rectangle of
+     * tiles, both corners included.
+     */
+    public boolean isViewing(int minCol, int minRow, int maxCol, int maxRow) {
+        int[] view = this.view;
+        return minCol <= view[2] && maxCol >= view[0] && minRow <= view[3] && maxRow >= view[1];
+    }
+
+    public void setView(int col, int row, int numCols, int numRows) {
+        this.view = new int[] {col, row, col + numCols - 1, row + numRows - 1};
+    }
+
+    /**
+     * Queues a line for the client, disconnecting it if it is too far
+     * behind.
+     */
+    public void send(String line) {
+        if (!this.outgoing.offer(line)) {
+            this.close();
+        }
+    }
+
+    private void read() {
+        try {
+            // Not closed here: that would close the socket before the writer is done
+            RecordReader in = new RecordReader(Channels.newChannel(this.socket.getInputStream()));
+            while (in.nextRecord()) {
+                if (in.getFieldCount() == 0) {
+                    continue;
+                }
+                String reply = this.server.handle(this, in);
+                if (reply == null) {
+                    break;
+                }
+                this.send(reply);
+            }
+            // The writer closes the connection once the replies so far are sent
+            this.send(END);
+        }
+        catch (IOException e) {
+            // The client went away
+            this.close();
+        }
+    }
+
+    private void write() {
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line = this.outgoing.take();
+            while (line != END) {
+                out.write(line);
+                out.write("\n");
+                // Flushes once the queue runs dry, so a burst of changes goes out together
+                line = this.outgoing.poll();
+                if (line == null) {
+                    out.flush();
+                    line = this.outgoing.take();
+                }
+            }
+        }
+        catch (IOException e) {
+            // The client went away
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            this.close();
+        }
+    }
+
+    private void close() {
+        this.server.remove(this);
+        try {
+            this.socket.close();
+        }
+        catch (IOException e) {
+            // Already closed
+        }
+        this.writer.interrupt();
+    }
+}
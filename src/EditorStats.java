@@ -0,0 +1,219 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Frame, edit and save timings of the editor. The draw thread reports each
+ * frame and edit, and the latest values can be read from any thread, for
+ * example through JMX once the stats are registered. Each frame can also
+ * be appended to a CSV file.
+ *
+ * The allocation rate is the number of bytes the draw thread allocated per
+ * second, where the JVM can measure it, and zero otherwise.
+ */
+public final class EditorStats implements EditorStatsMBean
+{
+    public static final String OBJECT_NAME = "WorldEditor:type=EditorStats";
+
+    private static final String CSV_HEADER =
+            "time_ms,frame_ms,tiles_drawn,entities_drawn,edit_ms,save_ms,alloc_bytes_per_s";
+    // Weight of the newest frame in the running averages
+    private static final double SMOOTHING = 0.05;
+    private static final long MAX_WINDOW_NANOS = 1_000_000_000L;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final LongSupplier clock;
+    private final long startNanos;
+    private Writer csv;
+
+    private long frameStart;
+    private long frameAllocated;
+    private long lastFrameStart;
+    private long windowStart;
+    private double windowMax;
+
+    private volatile long frames;
+    private volatile double frameMillis;
+    private volatile double averageFrameMillis;
+    private volatile double maxFrameMillis;
+    private volatile int tilesDrawn;
+    private volatile int entitiesDrawn;
+    private volatile double editMillis;
+    private volatile double saveMillis;
+    private volatile double allocationRate;
+
+    public EditorStats() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * Stats timed by clock, in nanoseconds, instead of System.nanoTime.
+     */
+    EditorStats(LongSupplier clock) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        this.threads = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+    }
+
+    /**
+     * Makes the stats readable through the platform MBean server.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Starts appending a row per frame to a new CSV file at path.
+     */
+    public void startCsv(Path path) throws IOException {
+        this.startCsv(new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Starts appending a row per frame to out, which is closed with the
+     * stats.
+     */
+    void startCsv(Writer out) throws IOException {
+        this.csv = out;
+        this.csv.write(CSV_HEADER);
+        this.csv.write("\n");
+    }
+
+    public void beginFrame() {
+        this.frameStart = this.clock.getAsLong();
+        this.frameAllocated = this.allocatedBytes();
+    }
+
+    public void endFrame(int tilesDrawn, int entitiesDrawn) {
+        long now = this.clock.getAsLong();
+        double millis = (now - this.frameStart) / NANOS_PER_MILLI;
+        long allocated = this.allocatedBytes() - this.frameAllocated;
+
+        this.frameMillis = millis;
+        this.tilesDrawn = tilesDrawn;
+        this.entitiesDrawn = entitiesDrawn;
+        this.averageFrameMillis = this.frames == 0 ? millis
+                : this.averageFrameMillis + SMOOTHING * (millis - this.averageFrameMillis);
+
+        // Allocations are spread over the time since the previous frame started
+        if (this.lastFrameStart != 0) {
+            double rate = allocated * 1e9 / Math.max(1, this.frameStart - this.lastFrameStart);
+            this.allocationRate += SMOOTHING * (rate - this.allocationRate);
+        }
+        this.lastFrameStart = this.frameStart;
+
+        // The maximum covers the last full second, so a single spike stays readable
+        this.windowMax = Math.max(this.windowMax, millis);
+        if (now - this.windowStart >= MAX_WINDOW_NANOS) {
+            this.maxFrameMillis = this.windowMax;
+            this.windowMax = 0;
+            this.windowStart = now;
+        }
+        this.frames++;
+
+        if (this.csv != null) {
+            this.writeRow(now);
+        }
+    }
+
+    public void recordEdit(long nanos) {
+        this.editMillis = nanos / NANOS_PER_MILLI;
+    }
+
+    public void recordSave(long nanos) {
+        this.saveMillis = nanos / NANOS_PER_MILLI;
+    }
+
+    public void close() throws IOException {
+        if (this.csv != null) {
+            this.csv.close();
+            this.csv = null;
+        }
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public double getFrameMillis() {
+        return frameMillis;
+    }
+
+    @Override
+    public double getAverageFrameMillis() {
+        return averageFrameMillis;
+    }
+
+    @Override
+    public double getMaxFrameMillis() {
+        return maxFrameMillis;
+    }
+
+    @Override
+    public int getTilesDrawn() {
+        return tilesDrawn;
+    }
+
+    @Override
+    public int getEntitiesDrawn() {
+        return entitiesDrawn;
+    }
+
+    @Override
+    public double getEditMillis() {
+        return editMillis;
+    }
+
+    @Override
+    public double getSaveMillis() {
+        return saveMillis;
+    }
+
+    @Override
+    public double getAllocationRate() {
+        return allocationRate;
+    }
+
+    private long allocatedBytes() {
+        return this.threads == null ? 0 : this.threads.getCurrentThreadAllocatedBytes();
+    }
+
+    private void writeRow(long now) {
+        try {
+            this.csv.write(String.format(Locale.ROOT, "%d,%.3f,%d,%d,%.3f,%.3f,%.0f\n",
+                    (now - this.startNanos) / 1000000, this.frameMillis, this.tilesDrawn,
+                    this.entitiesDrawn, this.editMillis, this.saveMillis, this.allocationRate));
+        }
+        catch (IOException e) {
+            // Rows are no longer written, but the file is still closed
+            Writer failed = this.csv;
+            this.csv = null;
+            try {
+                failed.close();
+            }
+            catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            e.printStackTrace();
+        }
+    }
+}
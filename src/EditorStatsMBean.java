@@ -0,0 +1,23 @@
+/**
+ * The editor's performance counters as seen through JMX.
+ */
+public interface EditorStatsMBean
+{
+    long getFrames();
+
+    double getFrameMillis();
+
+    double getAverageFrameMillis();
+
+    double getMaxFrameMillis();
+
+    int getTilesDrawn();
+
+    int getEntitiesDrawn();
+
+    double getEditMillis();
+
+    double getSaveMillis();
+
+    double getAllocationRate();
+}
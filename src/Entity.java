@@ -1,18 +1,19 @@
 import processing.core.PImage;
 
 import java.util.List;
-import java.util.Objects;
 
 public abstract class Entity {
 
     private Point position;
     private String id;
-    private List<PImage> images;
+    private FrameList images;
     private int imageIndex;
+    // The Animator's entry for this entity, or -1 while it is not animating
+    private int animationEntry = -1;
 
     protected Entity(Point position, String id, List<PImage> images, int imageIndex) {
         this.id = id;
-        this.images = images;
+        this.images = FrameList.of(images);
         this.imageIndex = imageIndex;
         this.position = position;
     }
@@ -29,7 +30,7 @@ public abstract class Entity {
         return this.id;
     }
 
-    public List<PImage> getImages() {
+    public FrameList getImages() {
         return images;
     }
 
@@ -41,6 +42,22 @@ public abstract class Entity {
         this.imageIndex = imageIndex;
     }
 
+    /**
+     * The time between animation frames in milliseconds, or 0 for
+     * entities that do not animate.
+     */
+    public int getAnimationPeriod() {
+        return 0;
+    }
+
+    int getAnimationEntry() {
+        return animationEntry;
+    }
+
+    void setAnimationEntry(int animationEntry) {
+        this.animationEntry = animationEntry;
+    }
+
     public PImage getCurrentImage() {
         return this.getImages().get(this.imageIndex);
     }
@@ -55,12 +72,18 @@ public abstract class Entity {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getId());
+        return getId().hashCode();
     }
 
     public String createStoreLine() {
-        String className = this.getId().split("_")[0];
-        String storeLine = className + " " + this.getId() + " " + this.getPosition().x + " " + this.getPosition().y;
+        return this.createStoreLine(this.getPosition().x, this.getPosition().y);
+    }
+
+    public String createStoreLine(int col, int row) {
+        // The record type is the part of the id before the first underscore
+        String id = this.getId();
+        int prefix = id.indexOf('_');
+        String storeLine = (prefix < 0 ? id : id.substring(0, prefix)) + " " + id + " " + col + " " + row;
         storeLine = this._storeLine(storeLine);
         return storeLine;
     }
@@ -0,0 +1,427 @@
+import processing.core.PImage;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Holds many entities as columns of primitive arrays instead of one
+ * object each, for tools that work on very large maps. An entity is an
+ * int handle into the columns. Handles of removed entities are reused.
+ *
+ * Entities added without an id get the id kind_col_row from where they
+ * were added, like the ids the editor makes. The string is only built
+ * when asked for: its hash is computed from the digits, and find
+ * compares against it in place. Ids are indexed in an open addressing
+ * table, so find takes constant time.
+ */
+public final class EntityStore
+{
+    public static final byte HOUSE = 1;
+    public static final byte OBSTACLE = 2;
+    public static final byte TREE = 3;
+
+    public static final int NO_ENTITY = -1;
+
+    private static final byte FREE = 0;
+    private static final String[] KIND_KEYS = {null, "house", "obstacle", Tree.TREE_KEY};
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final FrameList[] images;
+
+    private byte[] kinds;
+    private int[] xs;
+    private int[] ys;
+    private int[] animationPeriods;
+    private int[] actionPeriods;
+    private int[] healths;
+    private int[] imageIndices;
+    private int[] hashes;
+    private String[] ids;
+
+    // Handle + 1 of the entity in each slot, or 0 for an empty slot
+    private int[] index;
+
+    private int size;
+    private int limit;
+    // Free handles are chained through xs
+    private int free;
+
+    public EntityStore(ImageStore imageStore) {
+        this.images = new FrameList[KIND_KEYS.length];
+        for (int kind = HOUSE; kind < KIND_KEYS.length; kind++) {
+            this.images[kind] = FrameList.of(imageStore.getImageList(KIND_KEYS[kind]));
+        }
+        this.kinds = new byte[INITIAL_CAPACITY];
+        this.xs = new int[INITIAL_CAPACITY];
+        this.ys = new int[INITIAL_CAPACITY];
+        this.animationPeriods = new int[INITIAL_CAPACITY];
+        this.actionPeriods = new int[INITIAL_CAPACITY];
+        this.healths = new int[INITIAL_CAPACITY];
+        this.imageIndices = new int[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.ids = new String[INITIAL_CAPACITY];
+        this.index = new int[INITIAL_CAPACITY * 2];
+        this.free = NO_ENTITY;
+    }
+
+    public int addHouse(int x, int y) {
+        return this.add(HOUSE, null, x, y, 0, 0, 0);
+    }
+
+    public int addObstacle(int x, int y, int animationPeriod) {
+        return this.add(OBSTACLE, null, x, y, animationPeriod, 0, 0);
+    }
+
+    public int addTree(int x, int y, int animationPeriod, int actionPeriod, int health) {
+        return this.add(TREE, null, x, y, animationPeriod, actionPeriod, health);
+    }
+
+    /**
+     * Adds an entity and returns its handle. id may be null for the id
+     * kind_x_y. Periods and health a kind does not have are ignored.
+     */
+    public int add(byte kind, String id, int x, int y, int animationPeriod, int actionPeriod, int health) {
+        if (kind <= FREE || kind >= KIND_KEYS.length) {
+            throw new IllegalArgumentException("invalid entity kind " + kind);
+        }
+        int hash = id != null ? id.hashCode() : derivedHash(kind, x, y);
+        if (this.find(id, kind, x, y, hash) != NO_ENTITY) {
+            throw new IllegalArgumentException("duplicate entity id "
+                    + (id != null ? id : derivedId(kind, x, y)));
+        }
+
+        int handle;
+        if (this.free != NO_ENTITY) {
+            handle = this.free;
+            this.free = this.xs[handle];
+        }
+        else {
+            if (this.limit == this.kinds.length) {
+                this.grow(this.limit * 2);
+            }
+            handle = this.limit++;
+        }
+        this.kinds[handle] = kind;
+        this.xs[handle] = x;
+        this.ys[handle] = y;
+        this.animationPeriods[handle] = kind == HOUSE ? 0 : animationPeriod;
+        this.actionPeriods[handle] = kind == TREE ? actionPeriod : 0;
+        this.healths[handle] = kind == TREE ? health : 0;
+        this.imageIndices[handle] = 0;
+        this.hashes[handle] = hash;
+        this.ids[handle] = id;
+        this.size++;
+
+        if (this.size * 2 > this.index.length) {
+            // Rehashing indexes the new entity along with the rest
+            this.rehash(this.index.length * 2);
+        }
+        else {
+            this.insert(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Adds a copy of entity and returns its handle.
+     */
+    public int add(Entity entity) {
+        Point pos = entity.getPosition();
+        if (entity instanceof Tree) {
+            Tree tree = (Tree) entity;
+            return this.add(TREE, entity.getId(), pos.x, pos.y,
+                    tree.getAnimationPeriod(), tree.getActionPeriod(), tree.getHealth());
+        }
+        if (entity instanceof Obstacle) {
+            return this.add(OBSTACLE, entity.getId(), pos.x, pos.y,
+                    ((Obstacle) entity).getAnimationPeriod(), 0, 0);
+        }
+        return this.add(HOUSE, entity.getId(), pos.x, pos.y, 0, 0, 0);
+    }
+
+    public void remove(int handle) {
+        this.check(handle);
+        this.delete(this.slotOf(handle));
+        this.kinds[handle] = FREE;
+        this.ids[handle] = null;
+        this.xs[handle] = this.free;
+        this.free = handle;
+        this.size--;
+    }
+
+    /**
+     * Returns the handle of the entity with the given id, or NO_ENTITY.
+     */
+    public int find(String id) {
+        return this.find(id, FREE, 0, 0, id.hashCode());
+    }
+
+    public boolean contains(int handle) {
+        return handle >= 0 && handle < this.limit && this.kinds[handle] != FREE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Calls action with the handle of every entity, in handle order. The
+     * store must not be changed by action.
+     */
+    public void forEach(IntConsumer action) {
+        for (int handle = 0; handle < this.limit; handle++) {
+            if (this.kinds[handle] != FREE) {
+                action.accept(handle);
+            }
+        }
+    }
+
+    public byte getKind(int handle) {
+        this.check(handle);
+        return this.kinds[handle];
+    }
+
+    public int getX(int handle) {
+        this.check(handle);
+        return this.xs[handle];
+    }
+
+    public int getY(int handle) {
+        this.check(handle);
+        return this.ys[handle];
+    }
+
+    public void setPosition(int handle, int x, int y) {
+        this.check(handle);
+        // The id keeps naming where the entity was added
+        this.ids[handle] = this.getId(handle);
+        this.xs[handle] = x;
+        this.ys[handle] = y;
+    }
+
+    public int getAnimationPeriod(int handle) {
+        this.check(handle);
+        return this.animationPeriods[handle];
+    }
+
+    public int getActionPeriod(int handle) {
+        this.check(handle);
+        return this.actionPeriods[handle];
+    }
+
+    public int getHealth(int handle) {
+        this.check(handle);
+        return this.healths[handle];
+    }
+
+    public int getImageIndex(int handle) {
+        this.check(handle);
+        return this.imageIndices[handle];
+    }
+
+    public void setImageIndex(int handle, int imageIndex) {
+        this.check(handle);
+        this.imageIndices[handle] = imageIndex;
+    }
+
+    public FrameList getImages(int handle) {
+        this.check(handle);
+        return this.images[this.kinds[handle]];
+    }
+
+    public PImage getCurrentImage(int handle) {
+        return this.getImages(handle).get(this.imageIndices[handle]);
+    }
+
+    public String getId(int handle) {
+        this.check(handle);
+        String id = this.ids[handle];
+        return id != null ? id : derivedId(this.kinds[handle], this.xs[handle], this.ys[handle]);
+    }
+
+    /**
+     * Returns the save file line for the entity, the same line the
+     * matching Entity would write.
+     */
+    public String createStoreLine(int handle) {
+        String id = this.getId(handle);
+        StringBuilder line = new StringBuilder(id.length() * 2 + 32);
+        int prefix = id.indexOf('_');
+        line.append(id, 0, prefix < 0 ? id.length() : prefix).append(' ').append(id)
+                .append(' ').append(this.xs[handle]).append(' ').append(this.ys[handle]);
+        if (this.kinds[handle] != HOUSE) {
+            line.append(' ').append(this.animationPeriods[handle]);
+        }
+        if (this.kinds[handle] == TREE) {
+            line.append(' ').append(this.actionPeriods[handle]).append(' ').append(this.healths[handle]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Creates an Entity with the same id, position and parameters, for
+     * handing to a WorldModel.
+     */
+    public Entity toEntity(int handle) {
+        Point pos = new Point(this.getX(handle), this.getY(handle));
+        String id = this.getId(handle);
+        switch (this.kinds[handle]) {
+            case OBSTACLE:
+                return Factory.createObstacle(id, pos, this.images[OBSTACLE], this.animationPeriods[handle]);
+            case TREE:
+                return Factory.createTree(id, pos, this.images[TREE], this.animationPeriods[handle],
+                        this.actionPeriods[handle], this.healths[handle]);
+            default:
+                return Factory.createHouse(id, pos, this.images[HOUSE]);
+        }
+    }
+
+    private void check(int handle) {
+        if (!this.contains(handle)) {
+            throw new IllegalArgumentException("no entity with handle " + handle);
+        }
+    }
+
+    private int find(String id, byte kind, int x, int y, int hash) {
+        // Looks up id, or the derived id of kind, x and y when id is null
+        int mask = this.index.length - 1;
+        for (int slot = spread(hash) & mask; this.index[slot] != 0; slot = (slot + 1) & mask) {
+            int handle = this.index[slot] - 1;
+            if (this.hashes[handle] != hash) {
+                continue;
+            }
+            String other = this.ids[handle];
+            boolean same;
+            if (id == null) {
+                same = other != null ? matchesDerived(other, kind, x, y)
+                        : this.kinds[handle] == kind && this.xs[handle] == x && this.ys[handle] == y;
+            }
+            else {
+                same = other != null ? other.equals(id)
+                        : matchesDerived(id, this.kinds[handle], this.xs[handle], this.ys[handle]);
+            }
+            if (same) {
+                return handle;
+            }
+        }
+        return NO_ENTITY;
+    }
+
+    private void insert(int handle) {
+        int mask = this.index.length - 1;
+        int slot = spread(this.hashes[handle]) & mask;
+        while (this.index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        this.index[slot] = handle + 1;
+    }
+
+    private int slotOf(int handle) {
+        int mask = this.index.length - 1;
+        int slot = spread(this.hashes[handle]) & mask;
+        while (this.index[slot] != handle + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void delete(int slot) {
+        // Moves later entries of the probe run back so no lookup stops early at the hole
+        int mask = this.index.length - 1;
+        this.index[slot] = 0;
+        for (int next = (slot + 1) & mask; this.index[next] != 0; next = (next + 1) & mask) {
+            int home = spread(this.hashes[this.index[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                this.index[slot] = this.index[next];
+                this.index[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        this.index = new int[capacity];
+        for (int handle = 0; handle < this.limit; handle++) {
+            if (this.kinds[handle] != FREE) {
+                this.insert(handle);
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        this.kinds = Arrays.copyOf(this.kinds, capacity);
+        this.xs = Arrays.copyOf(this.xs, capacity);
+        this.ys = Arrays.copyOf(this.ys, capacity);
+        this.animationPeriods = Arrays.copyOf(this.animationPeriods, capacity);
+        this.actionPeriods = Arrays.copyOf(this.actionPeriods, capacity);
+        this.healths = Arrays.copyOf(this.healths, capacity);
+        this.imageIndices = Arrays.copyOf(this.imageIndices, capacity);
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String derivedId(byte kind, int x, int y) {
+        return KIND_KEYS[kind] + "_" + x + "_" + y;
+    }
+
+    private static int derivedHash(byte kind, int x, int y) {
+        // String.hashCode of derivedId, without building the string
+        int hash = KIND_KEYS[kind].hashCode() * 31 + '_';
+        hash = hashDigits(hash, x) * 31 + '_';
+        return hashDigits(hash, y);
+    }
+
+    private static int hashDigits(int hash, long value) {
+        if (value < 0) {
+            hash = hash * 31 + '-';
+            value = -value;
+        }
+        for (long unit = unitOf(value); unit > 0; unit /= 10) {
+            hash = hash * 31 + (char) ('0' + value / unit % 10);
+        }
+        return hash;
+    }
+
+    private static boolean matchesDerived(String id, byte kind, int x, int y) {
+        String key = KIND_KEYS[kind];
+        if (!id.startsWith(key) || id.length() <= key.length() || id.charAt(key.length()) != '_') {
+            return false;
+        }
+        int end = matchDigits(id, key.length() + 1, x);
+        if (end < 0 || end >= id.length() || id.charAt(end) != '_') {
+            return false;
+        }
+        return matchDigits(id, end + 1, y) == id.length();
+    }
+
+    private static int matchDigits(String id, int at, long value) {
+        // Returns the index after value written in decimal at index at, or -1
+        if (value < 0) {
+            if (at >= id.length() || id.charAt(at) != '-') {
+                return -1;
+            }
+            at++;
+            value = -value;
+        }
+        for (long unit = unitOf(value); unit > 0; unit /= 10) {
+            if (at >= id.length() || id.charAt(at) != (char) ('0' + value / unit % 10)) {
+                return -1;
+            }
+            at++;
+        }
+        return at;
+    }
+
+    private static long unitOf(long value) {
+        // The place value of the leading digit
+        long unit = 1;
+        while (unit * 10 <= value) {
+            unit *= 10;
+        }
+        return unit;
+    }
+}
@@ -0,0 +1,90 @@
+import processing.core.PImage;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The animation frames of one image key, backed by an array. Once the
+ * ImageStore has packed its images, every frame also knows where it sits
+ * in an atlas page so it can be drawn from the shared page image.
+ */
+public final class FrameList extends AbstractList<PImage> implements RandomAccess
+{
+    private PImage[] frames;
+    private int size;
+
+    private PImage[] pages;
+    private int[] pageX;
+    private int[] pageY;
+
+    public FrameList() {
+        this.frames = new PImage[4];
+    }
+
+    /**
+     * Returns images itself when it already is a FrameList, otherwise a
+     * FrameList holding the same images.
+     */
+    public static FrameList of(List<PImage> images) {
+        if (images instanceof FrameList) {
+            return (FrameList) images;
+        }
+        FrameList frames = new FrameList();
+        frames.addAll(images);
+        return frames;
+    }
+
+    @Override
+    public PImage get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("frame " + index + " of " + this.size);
+        }
+        return this.frames[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int index, PImage image) {
+        if (index != this.size) {
+            throw new UnsupportedOperationException("frames can only be appended");
+        }
+        if (this.size == this.frames.length) {
+            this.frames = Arrays.copyOf(this.frames, this.size * 2);
+        }
+        this.frames[this.size++] = image;
+        this.pages = null;
+    }
+
+    /**
+     * The atlas page frame index was packed into, or null if the frames
+     * have not been packed.
+     */
+    public PImage getPage(int index) {
+        return this.pages == null ? null : this.pages[index];
+    }
+
+    public int getPageX(int index) {
+        return this.pageX[index];
+    }
+
+    public int getPageY(int index) {
+        return this.pageY[index];
+    }
+
+    void setRegion(int index, PImage page, int x, int y) {
+        if (this.pages == null) {
+            this.pages = new PImage[this.size];
+            this.pageX = new int[this.size];
+            this.pageY = new int[this.size];
+        }
+        this.pages[index] = page;
+        this.pageX[index] = x;
+        this.pageY[index] = y;
+    }
+}
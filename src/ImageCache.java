@@ -0,0 +1,122 @@
+import processing.core.PImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the decoded and colour keyed pixels of loaded images in a
+ * directory, so later runs can skip decoding an image whose source file
+ * has not changed since. An entry is only used when the size and
+ * modification time of the source still match the ones it was made from.
+ * Entries are written to a temporary file and moved into place, so several
+ * threads may use the same cache.
+ */
+public final class ImageCache
+{
+    private static final int MAGIC = 0x50584341;
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".px";
+
+    private final Path directory;
+
+    public ImageCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached pixels of source keyed with maskColor, or null if
+     * there is no up to date entry. Pass keyed as false for images that
+     * are not colour keyed.
+     */
+    public PImage get(File source, boolean keyed, int maskColor) {
+        String name = entryName(source, keyed, maskColor);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(this.entryPath(name));
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION
+                    || in.getLong() != source.length() || in.getLong() != source.lastModified()) {
+                return null;
+            }
+            byte[] nameBytes = new byte[in.getShort()];
+            in.get(nameBytes);
+            if (!name.equals(new String(nameBytes, StandardCharsets.UTF_8))) {
+                return null;
+            }
+
+            int format = in.getInt();
+            int width = in.getInt();
+            int height = in.getInt();
+            if (in.remaining() != width * height * Integer.BYTES) {
+                return null;
+            }
+            PImage img = new PImage(width, height, format);
+            in.asIntBuffer().get(img.pixels);
+            return img;
+        }
+        catch (RuntimeException e) {
+            // A truncated or foreign file is treated as a miss and replaced later
+            return null;
+        }
+    }
+
+    /**
+     * Stores the pixels of img as the entry for source. Failures are
+     * reported but otherwise ignored, as the cache is only an optimisation.
+     */
+    public void put(File source, boolean keyed, int maskColor, PImage img) {
+        String name = entryName(source, keyed, maskColor);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        img.loadPixels();
+
+        ByteBuffer out = ByteBuffer.allocate(4 * Integer.BYTES + 2 * Long.BYTES + Short.BYTES
+                + nameBytes.length + Integer.BYTES + img.pixels.length * Integer.BYTES);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(source.length());
+        out.putLong(source.lastModified());
+        out.putShort((short) nameBytes.length);
+        out.put(nameBytes);
+        out.putInt(img.format);
+        out.putInt(img.width);
+        out.putInt(img.height);
+        out.asIntBuffer().put(img.pixels);
+
+        try {
+            Files.createDirectories(this.directory);
+            Path target = this.entryPath(name);
+            Path temp = Files.createTempFile(this.directory, target.getFileName().toString(), ".tmp");
+            Files.write(temp, out.array());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private Path entryPath(String name) {
+        return this.directory.resolve(String.format("%08x", name.hashCode()) + EXTENSION);
+    }
+
+    private static String entryName(File source, boolean keyed, int maskColor) {
+        String path = source.getAbsolutePath();
+        return keyed ? path + "#" + String.format("%06x", maskColor & 0xffffff) : path;
+    }
+}
@@ -1,7 +1,9 @@
+import processing.core.PApplet;
 import processing.core.PImage;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -9,12 +11,18 @@ public final class ImageStore
 {
     private static final String DEFAULT_IMAGE_NAME = "background_default";
 
+    private static final int ATLAS_WIDTH = 1024;
+    private static final int ATLAS_MAX_HEIGHT = 2048;
+    private static final int OPAQUE = 0xff000000;
+
     private final Map<String, List<PImage>> images;
-    private final List<PImage> defaultImages;
+    private final FrameList defaultImages;
+    private final List<PImage> atlasPages;
 
     public ImageStore(PImage defaultImage) {
         this.images = new HashMap<>();
-        defaultImages = new LinkedList<>();
+        this.atlasPages = new ArrayList<>();
+        defaultImages = new FrameList();
         defaultImages.add(defaultImage);
     }
 
@@ -35,11 +43,96 @@ public final class ImageStore
     {
         List<PImage> imgs = images.get(key);
         if (imgs == null) {
-            imgs = new LinkedList<>();
+            imgs = new FrameList();
             images.put(key, imgs);
         }
         return imgs;
     }
 
+    public List<PImage> getAtlasPages() {
+        return atlasPages;
+    }
+
+    /**
+     * Copies every loaded frame into a few large atlas pages, packed in
+     * rows, and records each frame's page and position in its FrameList.
+     * Call this once all images are loaded.
+     */
+    public void packAtlas() {
+        List<FrameList> lists = new ArrayList<>();
+        lists.add(this.defaultImages);
+        for (List<PImage> frames : this.images.values()) {
+            lists.add(FrameList.of(frames));
+        }
+
+        // Lay out frames in shelves first, so each page can be sized before copying
+        int page = 0;
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        List<Integer> pageHeights = new ArrayList<>();
+        Map<PImage, int[]> placed = new IdentityHashMap<>();
+        for (FrameList frames : lists) {
+            for (PImage frame : frames) {
+                if (placed.containsKey(frame) || frame.width > ATLAS_WIDTH
+                        || frame.height > ATLAS_MAX_HEIGHT) {
+                    continue;
+                }
+                if (x + frame.width > ATLAS_WIDTH) {
+                    x = 0;
+                    y += shelfHeight;
+                    shelfHeight = 0;
+                }
+                if (y + frame.height > ATLAS_MAX_HEIGHT) {
+                    pageHeights.add(y);
+                    page++;
+                    x = 0;
+                    y = 0;
+                    shelfHeight = 0;
+                }
+                int[] placement = {page, x, y};
+                placed.put(frame, placement);
+                x += frame.width;
+                shelfHeight = Math.max(shelfHeight, frame.height);
+            }
+        }
+        pageHeights.add(y + shelfHeight);
+
+        this.atlasPages.clear();
+        for (int height : pageHeights) {
+            PImage atlas = new PImage(ATLAS_WIDTH, Math.max(height, 1), PApplet.ARGB);
+            atlas.loadPixels();
+            this.atlasPages.add(atlas);
+        }
+
+        for (Map.Entry<PImage, int[]> entry : placed.entrySet()) {
+            int[] placement = entry.getValue();
+            copyInto(entry.getKey(), this.atlasPages.get(placement[0]), placement[1], placement[2]);
+        }
+        for (PImage atlas : this.atlasPages) {
+            atlas.updatePixels();
+        }
+
+        for (FrameList frames : lists) {
+            for (int i = 0; i < frames.size(); i++) {
+                int[] placement = placed.get(frames.get(i));
+                if (placement != null) {
+                    frames.setRegion(i, this.atlasPages.get(placement[0]), placement[1], placement[2]);
+                }
+            }
+        }
+    }
 
+    private static void copyInto(PImage frame, PImage atlas, int x, int y) {
+        frame.loadPixels();
+        // RGB images may leave the alpha bits unset, which the ARGB atlas would treat as transparent
+        int alpha = frame.format == PApplet.ARGB ? 0 : OPAQUE;
+        for (int row = 0; row < frame.height; row++) {
+            int source = row * frame.width;
+            int target = (y + row) * atlas.width + x;
+            for (int col = 0; col < frame.width; col++) {
+                atlas.pixels[target + col] = frame.pixels[source + col] | alpha;
+            }
+        }
+    }
 }
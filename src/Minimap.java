@@ -0,0 +1,275 @@
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * An overview of the whole world, one pixel per square block of tiles,
+ * with the area the view shows outlined on it.
+ *
+ * Each tile is coloured with the average colour of its background image,
+ * with its entity's average colour drawn over it. Blocks are a power of
+ * two tiles across, the smallest that fits the world into maxSize pixels,
+ * and worlds smaller than that are drawn with a few pixels per tile.
+ *
+ * The image is built once, a band of rows per task on the common fork/join
+ * pool. After that the minimap listens for edits and only marks the
+ * blocks holding changed tiles. Those blocks are recomputed when the map
+ * is next drawn, so a frame without edits only draws the image.
+ */
+public final class Minimap implements WorldEditListener
+{
+    private static final int OPAQUE = 0xff000000;
+    private static final int BAND_PIXELS = 1 << 12;
+
+    private final WorldModel world;
+    private final int maxSize;
+    private final Map<PImage, Integer> averages;
+
+    private int numCols;
+    private int numRows;
+    private int shift;
+    private int scale;
+    private PImage image;
+    private boolean[] dirty;
+    private int[] dirtyPixels;
+    private int dirtyCount;
+
+    private int x;
+    private int y;
+
+    public Minimap(WorldModel world, int maxSize) {
+        this.world = world;
+        this.maxSize = maxSize;
+        this.averages = new ConcurrentHashMap<>();
+        this.rebuild();
+        world.addEditListener(this);
+    }
+
+    /**
+     * Recomputes the whole image, for changes the world does not report
+     * such as loading whole chunks or growing.
+     */
+    public void rebuild() {
+        this.numCols = this.world.getNumCols();
+        this.numRows = this.world.getNumRows();
+        int size = Math.max(1, Math.max(this.numCols, this.numRows));
+        this.shift = 0;
+        while ((size + (1 << this.shift) - 1) >> this.shift > this.maxSize) {
+            this.shift++;
+        }
+        int width = Math.max(1, (this.numCols + (1 << this.shift) - 1) >> this.shift);
+        int height = Math.max(1, (this.numRows + (1 << this.shift) - 1) >> this.shift);
+        this.scale = Math.max(1, this.maxSize / Math.max(width, height));
+        this.image = new PImage(width, height, PApplet.RGB);
+        this.image.loadPixels();
+        this.dirty = new boolean[width * height];
+        this.dirtyPixels = new int[16];
+        this.dirtyCount = 0;
+
+        // Palette colours are worked out first, so the tasks only read arrays
+        TilePalette palette = this.world.getPalette();
+        int[] tileColours = new int[palette.size()];
+        for (int i = 0; i < tileColours.length; i++) {
+            tileColours[i] = this.average(palette.get(i).getCurrentImage()) | OPAQUE;
+        }
+
+        int bandRows = Math.max(1, BAND_PIXELS / width);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int first = 0; first < height; first += bandRows) {
+            int firstRow = first;
+            int endRow = Math.min(first + bandRows, height);
+            tasks.add(() -> {
+                for (int row = firstRow; row < endRow; row++) {
+                    for (int col = 0; col < width; col++) {
+                        this.image.pixels[row * width + col] = this.blockColour(col, row, tileColours);
+                    }
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> task : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                task.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("could not build minimap", e.getCause());
+        }
+        this.image.updatePixels();
+    }
+
+    /**
+     * Draws the map with its top left corner at (x, y), outlining the area
+     * view shows. Blocks changed since the last call are recomputed first.
+     */
+    public void draw(PApplet screen, WorldView view, int x, int y) {
+        if (this.world.getNumCols() != this.numCols || this.world.getNumRows() != this.numRows) {
+            this.rebuild();
+        }
+        if (this.dirtyCount > 0) {
+            this.repaintDirtyBlocks();
+        }
+        this.x = x;
+        this.y = y;
+
+        screen.image(this.image, x, y, this.getWidth(), this.getHeight());
+
+        Viewport viewport = view.getViewport();
+        int zoom = view.getZoom();
+        int left = this.worldToScreen(viewport.getCol());
+        int top = this.worldToScreen(viewport.getRow());
+        int right = this.worldToScreen(Math.min(viewport.getCol() + (viewport.getNumCols() << zoom), this.numCols));
+        int bottom = this.worldToScreen(Math.min(viewport.getRow() + (viewport.getNumRows() << zoom), this.numRows));
+        screen.noFill();
+        screen.stroke(255);
+        screen.rect(x + left, y + top, Math.max(1, right - left - 1), Math.max(1, bottom - top - 1));
+        screen.noStroke();
+    }
+
+    /**
+     * The tile under screen position (px, py) where the map was last
+     * drawn, or null if the map is not there.
+     */
+    public Point screenToWorld(int px, int py) {
+        if (px < this.x || py < this.y || px >= this.x + this.getWidth() || py >= this.y + this.getHeight()) {
+            return null;
+        }
+        int col = ((px - this.x) << this.shift) / this.scale;
+        int row = ((py - this.y) << this.shift) / this.scale;
+        return new Point(Math.min(col, this.numCols - 1), Math.min(row, this.numRows - 1));
+    }
+
+    /**
+     * The width the map is drawn at, in pixels.
+     */
+    public int getWidth() {
+        return this.image.width * this.scale;
+    }
+
+    /**
+     * The height the map is drawn at, in pixels.
+     */
+    public int getHeight() {
+        return this.image.height * this.scale;
+    }
+
+    @Override
+    public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+        this.markTile(col, row);
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            this.markTile(changes.getCol(i), changes.getRow(i));
+        }
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        this.markTile(entity.getPosition().getX(), entity.getPosition().getY());
+    }
+
+    @Override
+    public void entityRemoved(Entity entity, int col, int row) {
+        this.markTile(col, row);
+    }
+
+    private void markTile(int col, int row) {
+        if (col < 0 || row < 0 || col >= this.numCols || row >= this.numRows) {
+            // Outside the area the image was built for; draw rebuilds it if the world grew
+            return;
+        }
+        int index = (row >> this.shift) * this.image.width + (col >> this.shift);
+        if (!this.dirty[index]) {
+            this.dirty[index] = true;
+            if (this.dirtyCount == this.dirtyPixels.length) {
+                this.dirtyPixels = Arrays.copyOf(this.dirtyPixels, this.dirtyCount * 2);
+            }
+            this.dirtyPixels[this.dirtyCount++] = index;
+        }
+    }
+
+    private void repaintDirtyBlocks() {
+        // The palette may have grown since the build, so its colours are taken again
+        TilePalette palette = this.world.getPalette();
+        int[] tileColours = new int[palette.size()];
+        for (int i = 0; i < tileColours.length; i++) {
+            tileColours[i] = this.average(palette.get(i).getCurrentImage()) | OPAQUE;
+        }
+        for (int i = 0; i < this.dirtyCount; i++) {
+            int index = this.dirtyPixels[i];
+            this.image.pixels[index] = this.blockColour(index % this.image.width, index / this.image.width, tileColours);
+            this.dirty[index] = false;
+        }
+        this.dirtyCount = 0;
+        this.image.updatePixels();
+    }
+
+    private int blockColour(int pixelCol, int pixelRow, int[] tileColours) {
+        // Averages the tiles of the block that lie inside the world, reading the chunk arrays directly
+        int firstCol = pixelCol << this.shift;
+        int firstRow = pixelRow << this.shift;
+        int endCol = Math.min(firstCol + (1 << this.shift), this.numCols);
+        int endRow = Math.min(firstRow + (1 << this.shift), this.numRows);
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        for (int row = firstRow; row < endRow; row++) {
+            int chunkRow = row >> Chunk.SHIFT;
+            for (int col = firstCol; col < endCol; col++) {
+                short[] tiles = this.world.getChunkTiles(col >> Chunk.SHIFT, chunkRow);
+                Entity[] occupancy = this.world.getChunkOccupancy(col >> Chunk.SHIFT, chunkRow);
+                int cell = Chunk.cellIndex(col, row);
+                int colour = tileColours[tiles == null ? TilePalette.DEFAULT_TILE : tiles[cell]];
+                if (occupancy != null && occupancy[cell] != null) {
+                    colour = Util.blendOver(this.average(occupancy[cell].getCurrentImage()), colour);
+                }
+                red += (colour >> 16) & 0xff;
+                green += (colour >> 8) & 0xff;
+                blue += colour & 0xff;
+            }
+        }
+        long count = Math.max(1, (long) (endCol - firstCol) * (endRow - firstRow));
+        return OPAQUE | (int) (red / count) << 16 | (int) (green / count) << 8 | (int) (blue / count);
+    }
+
+    private int average(PImage frame) {
+        return this.averages.computeIfAbsent(frame, image -> {
+            image.loadPixels();
+            long alpha = 0;
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int pixel : image.pixels) {
+                // Colours are weighted by alpha, so transparent pixels do not darken the average
+                int a = image.format == PApplet.ARGB ? pixel >>> 24 : 0xff;
+                alpha += a;
+                red += a * ((pixel >> 16) & 0xff);
+                green += a * ((pixel >> 8) & 0xff);
+                blue += a * (pixel & 0xff);
+            }
+            if (alpha == 0) {
+                return 0;
+            }
+            return (int) (alpha / image.pixels.length) << 24 | (int) (red / alpha) << 16
+                    | (int) (green / alpha) << 8 | (int) (blue / alpha);
+        });
+    }
+
+    private int worldToScreen(int tile) {
+        return (tile * this.scale) >> this.shift;
+    }
+}
@@ -22,6 +22,11 @@ public final class Obstacle extends Entity
         this.animationPeriod = animationPeriod;
     }
 
+    @Override
+    public int getAnimationPeriod() {
+        return animationPeriod;
+    }
+
     @Override
     protected String _storeLine(String line) {
         return line + " " + this.animationPeriod;
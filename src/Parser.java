@@ -1,9 +1,16 @@
 import processing.core.PApplet;
 import processing.core.PImage;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /*
     Several constants used by the parser have been left here should the user wish to add their respective entities back
@@ -13,6 +20,11 @@ public class Parser {
 
     private static final int PROPERTY_KEY = 0;
 
+    private static final String WORLD_KEY = "world";
+    private static final int WORLD_NUM_PROPERTIES = 3;
+    private static final int WORLD_COLS = 1;
+    private static final int WORLD_ROWS = 2;
+
     private static final String BGND_KEY = "background";
     private static final int BGND_NUM_PROPERTIES = 4;
     private static final int BGND_ID = 1;
@@ -85,6 +97,8 @@ public class Parser {
     private static final int KEYED_RED_IDX = 2;
     private static final int KEYED_GREEN_IDX = 3;
     private static final int KEYED_BLUE_IDX = 4;
+    // Decoding is mostly waiting on the disk, so a few threads keep it busy
+    private static final int MAX_IMAGE_THREADS = 4;
 
 
     private void setAlpha(PImage img, int maskColor, int alpha) {
@@ -101,147 +115,237 @@ public class Parser {
     }
 
     public void loadImages(
-            Scanner in, PApplet screen, ImageStore imageStore)
+            RecordReader in, PApplet screen, ImageStore imageStore) throws IOException
     {
-        int lineNumber = 0;
-        while (in.hasNextLine()) {
-            try {
-                processImageLine(imageStore.getImages(), in.nextLine(), screen, imageStore);
+        this.loadImages(in, screen, imageStore, null);
+    }
+
+    /**
+     * Loads every image named in the image list. Files are decoded and
+     * colour keyed on a few worker threads of their own, then added to the
+     * ImageStore in list order so the frames of each key keep their order.
+     * When cache is not null, images whose source files are unchanged are
+     * read from it instead of being decoded again.
+     */
+    public void loadImages(
+            RecordReader in, PApplet screen, ImageStore imageStore, ImageCache cache)
+            throws IOException
+    {
+        // Not the common pool: decodes block on file reads, and would hold up the CPU bound work there
+        ExecutorService workers = Executors.newFixedThreadPool(
+                Math.min(Runtime.getRuntime().availableProcessors(), MAX_IMAGE_THREADS), r -> {
+                    Thread thread = new Thread(r, "image-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        List<String> keys = new ArrayList<>();
+        List<Future<PImage>> decoded = new ArrayList<>();
+        try {
+            while (in.nextRecord()) {
+                try {
+                    if (in.getFieldCount() >= 2) {
+                        String file = in.getString(1);
+                        boolean keyed = in.getFieldCount() >= KEYED_IMAGE_MIN;
+                        int maskColor = keyed ? screen.color(in.getInt(KEYED_RED_IDX),
+                                in.getInt(KEYED_GREEN_IDX), in.getInt(KEYED_BLUE_IDX)) : 0;
+                        decoded.add(workers.submit(
+                                () -> this.decodeImage(screen, file, keyed, maskColor, cache)));
+                        keys.add(in.getKey(0));
+                    }
+                }
+                catch (NumberFormatException e) {
+                    System.out.println(
+                            String.format("Image format error on line %d",
+                                    in.getLineNumber()));
+                }
             }
-            catch (NumberFormatException e) {
-                System.out.println(
-                        String.format("Image format error on line %d",
-                                lineNumber));
+
+            Map<String, List<PImage>> images = imageStore.getImages();
+            for (int i = 0; i < decoded.size(); i++) {
+                PImage img = decoded.get(i).get();
+                if (img != null && img.width != -1) {
+                    imageStore.getImages(images, keys.get(i)).add(img);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading images", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("could not load images", e.getCause());
+        }
+        finally {
+            // Images still queued after a failure are not needed
+            for (Future<PImage> image : decoded) {
+                image.cancel(false);
+            }
+            workers.shutdown();
+        }
+    }
+
+    private PImage decodeImage(
+            PApplet screen, String file, boolean keyed, int maskColor, ImageCache cache)
+    {
+        File source = cache == null ? null : screen.sketchFile(file);
+        if (source != null && source.isFile()) {
+            PImage cached = cache.get(source, keyed, maskColor);
+            if (cached != null) {
+                return cached;
             }
-            lineNumber++;
         }
+
+        PImage img = screen.loadImage(file);
+        if (img != null && img.width != -1) {
+            if (keyed) {
+                setAlpha(img, maskColor, 0);
+            }
+            if (source != null && source.isFile()) {
+                cache.put(source, keyed, maskColor, img);
+            }
+        }
+        return img;
     }
 
-    private void processImageLine(
-            Map<String, List<PImage>> images, String line, PApplet screen, ImageStore imageStore)
+    public void load(
+            RecordReader in, WorldModel world, ImageStore imageStore) throws IOException
     {
-        String[] attrs = line.split("\\s");
-        if (attrs.length >= 2) {
-            String key = attrs[0];
-            PImage img = screen.loadImage(attrs[1]);
-            if (img != null && img.width != -1) {
-                List<PImage> imgs = imageStore.getImages(images, key);
-                imgs.add(img);
-
-                if (attrs.length >= KEYED_IMAGE_MIN) {
-                    int r = Integer.parseInt(attrs[KEYED_RED_IDX]);
-                    int g = Integer.parseInt(attrs[KEYED_GREEN_IDX]);
-                    int b = Integer.parseInt(attrs[KEYED_BLUE_IDX]);
-                    setAlpha(img, screen.color(r, g, b), 0);
+        while (in.nextRecord()) {
+            try {
+                if (!this.processRecord(in, world, imageStore)) {
+                    System.err.println(String.format("invalid entry on line %d",
+                            in.getLineNumber()));
                 }
             }
+            catch (NumberFormatException e) {
+                System.err.println(
+                        String.format("invalid entry on line %d", in.getLineNumber()));
+            }
+            catch (IllegalArgumentException e) {
+                System.err.println(
+                        String.format("issue on line %d: %s", in.getLineNumber(),
+                                e.getMessage()));
+            }
         }
     }
 
+    /**
+     * Loads a world file in either the text or the binary format.
+     */
     public void load(
-            Scanner in, WorldModel world, ImageStore imageStore)
+            Path path, WorldModel world, ImageStore imageStore) throws IOException
     {
-        int lineNumber = 0;
-        while (in.hasNextLine()) {
-//            try {
-//                if (!this.processLine(in.nextLine(), world, imageStore)) {
-//                    System.err.println(String.format("invalid entry on line %d",
-//                            lineNumber));
-//                }
-//            }
-//            catch (NumberFormatException e) {
-//                System.err.println(
-//                        String.format("invalid entry on line %d", lineNumber));
-//            }
-//            catch (IllegalArgumentException e) {
-//                System.err.println(
-//                        String.format("issue on line %d: %s", lineNumber,
-//                                e.getMessage()));
-//            }
-//            lineNumber++;
-            this.processLine(in.nextLine(), world, imageStore);
+        if (BinaryWorldFile.isBinary(path)) {
+            BinaryWorldFile.load(path, world, imageStore);
+            return;
+        }
+
+        try (RecordReader in = RecordReader.open(path)) {
+            this.load(in, world, imageStore);
         }
     }
 
     public boolean processLine(
             String line, WorldModel world, ImageStore imageStore)
     {
-        String[] properties = line.split("\\s");
-        if (properties.length > 0) {
-            switch (properties[PROPERTY_KEY]) {
+        try (RecordReader in = RecordReader.of(line)) {
+            return in.nextRecord() && this.processRecord(in, world, imageStore);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean processRecord(
+            RecordReader in, WorldModel world, ImageStore imageStore)
+    {
+        if (in.getFieldCount() > 0) {
+            switch (in.getKey(PROPERTY_KEY)) {
+                case WORLD_KEY:
+                    return this.parseWorld(in, world);
                 case BGND_KEY:
-                    return this.parseBackground(properties, world, imageStore);
+                    return this.parseBackground(in, world, imageStore);
                 case OBSTACLE_KEY:
-                    return this.parseObstacle(properties, world, imageStore);
+                    return this.parseObstacle(in, world, imageStore);
                 case HOUSE_KEY:
-                    return this.parseHouse(properties, world, imageStore);
+                    return this.parseHouse(in, world, imageStore);
                 case Tree.TREE_KEY:
-                    return this.parseTree(properties, world, imageStore);
+                    return this.parseTree(in, world, imageStore);
+                default:
+                    // Entities the editor does not support are skipped, see VirtualWorld
+                    return true;
             }
         }
 
-        return false;
+        return true;
+    }
+
+    private boolean parseWorld(RecordReader in, WorldModel world) {
+        if (in.getFieldCount() == WORLD_NUM_PROPERTIES) {
+            world.ensureSize(in.getInt(WORLD_ROWS), in.getInt(WORLD_COLS));
+        }
+
+        return in.getFieldCount() == WORLD_NUM_PROPERTIES;
     }
 
     private boolean parseBackground(
-            String[] properties, WorldModel world, ImageStore imageStore)
+            RecordReader in, WorldModel world, ImageStore imageStore)
     {
-        if (properties.length == BGND_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[BGND_COL]),
-                    Integer.parseInt(properties[BGND_ROW]));
-            String id = properties[BGND_ID];
-            world.setBackground(pt,
-                    new Background(id, imageStore.getImageList(id)));
+        if (in.getFieldCount() == BGND_NUM_PROPERTIES) {
+            int col = in.getInt(BGND_COL);
+            int row = in.getInt(BGND_ROW);
+            String id = in.getKey(BGND_ID);
+            // Files without a world header are sized by their background tiles
+            world.ensureSize(row + 1, col + 1);
+            world.setBackgroundTile(col, row,
+                    world.getPalette().intern(id, imageStore.getImageList(id)));
         }
 
-        return properties.length == BGND_NUM_PROPERTIES;
+        return in.getFieldCount() == BGND_NUM_PROPERTIES;
     }
 
     private boolean parseTree(
-            String[] properties, WorldModel world, ImageStore imageStore)
+            RecordReader in, WorldModel world, ImageStore imageStore)
     {
-        if (properties.length == TREE_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[TREE_COL]),
-                    Integer.parseInt(properties[TREE_ROW]));
-            Entity entity = Factory.createTree(properties[TREE_ID],
+        if (in.getFieldCount() == TREE_NUM_PROPERTIES) {
+            Point pt = new Point(in.getInt(TREE_COL), in.getInt(TREE_ROW));
+            Entity entity = Factory.createTree(in.getString(TREE_ID),
                     pt,
                     imageStore.getImageList(Tree.TREE_KEY),
-                    Integer.parseInt(properties[TREE_ANIMATION_PERIOD]),
-                    Integer.parseInt(properties[TREE_ACTION_PERIOD]),
-                    Integer.parseInt(properties[TREE_HEALTH]));
+                    in.getInt(TREE_ANIMATION_PERIOD),
+                    in.getInt(TREE_ACTION_PERIOD),
+                    in.getInt(TREE_HEALTH));
             world.tryAddEntity(entity);
         }
 
-        return properties.length == TREE_NUM_PROPERTIES;
+        return in.getFieldCount() == TREE_NUM_PROPERTIES;
     }
 
     private boolean parseObstacle(
-            String[] properties, WorldModel world, ImageStore imageStore)
+            RecordReader in, WorldModel world, ImageStore imageStore)
     {
-        if (properties.length == OBSTACLE_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[OBSTACLE_COL]),
-                    Integer.parseInt(properties[OBSTACLE_ROW]));
-            Entity entity = Factory.createObstacle(properties[OBSTACLE_ID], pt,
+        if (in.getFieldCount() == OBSTACLE_NUM_PROPERTIES) {
+            Point pt = new Point(in.getInt(OBSTACLE_COL), in.getInt(OBSTACLE_ROW));
+            Entity entity = Factory.createObstacle(in.getString(OBSTACLE_ID), pt,
                     imageStore.getImageList(OBSTACLE_KEY),
-                    Integer.parseInt(properties[OBSTACLE_ANIMATION_PERIOD]));
+                    in.getInt(OBSTACLE_ANIMATION_PERIOD));
             world.tryAddEntity(entity);
         }
 
-        return properties.length == OBSTACLE_NUM_PROPERTIES;
+        return in.getFieldCount() == OBSTACLE_NUM_PROPERTIES;
     }
 
     private boolean parseHouse(
-            String[] properties, WorldModel world, ImageStore imageStore)
+            RecordReader in, WorldModel world, ImageStore imageStore)
     {
-        if (properties.length == HOUSE_NUM_PROPERTIES) {
-            Point pt = new Point(Integer.parseInt(properties[HOUSE_COL]),
-                    Integer.parseInt(properties[HOUSE_ROW]));
-            Entity entity = Factory.createHouse(properties[HOUSE_ID], pt,
+        if (in.getFieldCount() == HOUSE_NUM_PROPERTIES) {
+            Point pt = new Point(in.getInt(HOUSE_COL), in.getInt(HOUSE_ROW));
+            Entity entity = Factory.createHouse(in.getString(HOUSE_ID), pt,
                     imageStore.getImageList(HOUSE_KEY));
             world.tryAddEntity(entity);
         }
 
-        return properties.length == HOUSE_NUM_PROPERTIES;
+        return in.getFieldCount() == HOUSE_NUM_PROPERTIES;
     }
 
 
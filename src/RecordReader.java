@@ -0,0 +1,239 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads whitespace separated records, one per line, straight from a byte
+ * channel. Fields are located in place in the read buffer, so moving to the
+ * next record and reading numbers from it does not allocate. Short keys
+ * such as record types and texture names are interned, so the same String
+ * instance is returned each time the same bytes are seen.
+ */
+public final class RecordReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+    private static final int INITIAL_FIELDS = 8;
+    private static final int INTERN_CAPACITY = 512;
+    private static final int INTERN_LIMIT = INTERN_CAPACITY * 3 / 4;
+
+    private final ReadableByteChannel channel;
+    private byte[] bytes;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private int lineNumber;
+
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private int fieldCount;
+
+    private final byte[][] internedBytes;
+    private final String[] internedStrings;
+    private int internedCount;
+
+    public RecordReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.bytes = new byte[BUFFER_SIZE];
+        this.fieldStarts = new int[INITIAL_FIELDS];
+        this.fieldEnds = new int[INITIAL_FIELDS];
+        this.internedBytes = new byte[INTERN_CAPACITY][];
+        this.internedStrings = new String[INTERN_CAPACITY];
+    }
+
+    /**
+     * Opens a file for reading. GZIP compressed files are recognised by
+     * their first bytes and decompressed as they are read.
+     */
+    public static RecordReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        channel.read(magic, 0);
+        if (magic.position() == 2 && (magic.get(0) & 0xff) == GZIP_MAGIC_FIRST
+                && (magic.get(1) & 0xff) == GZIP_MAGIC_SECOND) {
+            return new RecordReader(Channels.newChannel(
+                    new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE)));
+        }
+        return new RecordReader(channel);
+    }
+
+    public static RecordReader of(String text) {
+        return new RecordReader(Channels.newChannel(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Moves to the next line of input. Returns false once the input is
+     * exhausted. Blank lines are returned as records with no fields.
+     */
+    public boolean nextRecord() throws IOException {
+        int scan = this.position;
+        while (true) {
+            for (int i = scan; i < this.limit; i++) {
+                if (this.bytes[i] == '\n') {
+                    this.splitFields(this.position, i);
+                    this.position = i + 1;
+                    this.lineNumber++;
+                    return true;
+                }
+            }
+
+            if (this.endOfInput) {
+                if (this.position < this.limit) {
+                    this.splitFields(this.position, this.limit);
+                    this.position = this.limit;
+                    this.lineNumber++;
+                    return true;
+                }
+                return false;
+            }
+
+            scan = this.limit - this.position;
+            this.fill();
+        }
+    }
+
+    /**
+     * The 1-based line number of the current record.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public int getInt(int field) {
+        int start = this.fieldStarts[field];
+        int end = this.fieldEnds[field];
+        boolean negative = start < end && this.bytes[start] == '-';
+        int i = negative || (start < end && this.bytes[start] == '+') ? start + 1 : start;
+        if (i == end) {
+            throw this.numberFormatError(field);
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = this.bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw this.numberFormatError(field);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw this.numberFormatError(field);
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw this.numberFormatError(field);
+        }
+        return (int) value;
+    }
+
+    public String getString(int field) {
+        return new String(this.bytes, this.fieldStarts[field],
+                this.fieldEnds[field] - this.fieldStarts[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Like getString, but returns a shared instance for repeated values.
+     * Only use this for fields drawn from a small set of values.
+     */
+    public String getKey(int field) {
+        int start = this.fieldStarts[field];
+        int end = this.fieldEnds[field];
+
+        int hash = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ this.bytes[i]) * 0x01000193;
+        }
+
+        int slot = hash & (INTERN_CAPACITY - 1);
+        while (this.internedBytes[slot] != null) {
+            if (Arrays.equals(this.internedBytes[slot], 0, this.internedBytes[slot].length,
+                    this.bytes, start, end)) {
+                return this.internedStrings[slot];
+            }
+            slot = (slot + 1) & (INTERN_CAPACITY - 1);
+        }
+
+        String value = this.getString(field);
+        if (this.internedCount < INTERN_LIMIT) {
+            this.internedBytes[slot] = Arrays.copyOfRange(this.bytes, start, end);
+            this.internedStrings[slot] = value;
+            this.internedCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void splitFields(int start, int end) {
+        this.fieldCount = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && isWhitespace(this.bytes[i])) {
+                i++;
+            }
+            if (i == end) {
+                break;
+            }
+
+            if (this.fieldCount == this.fieldStarts.length) {
+                this.fieldStarts = Arrays.copyOf(this.fieldStarts, this.fieldCount * 2);
+                this.fieldEnds = Arrays.copyOf(this.fieldEnds, this.fieldCount * 2);
+            }
+            this.fieldStarts[this.fieldCount] = i;
+            while (i < end && !isWhitespace(this.bytes[i])) {
+                i++;
+            }
+            this.fieldEnds[this.fieldCount] = i;
+            this.fieldCount++;
+        }
+    }
+
+    private void fill() throws IOException {
+        // Keep the partial line at the front of the buffer and read after it
+        int remaining = this.limit - this.position;
+        if (this.position > 0) {
+            System.arraycopy(this.bytes, this.position, this.bytes, 0, remaining);
+        }
+        else if (remaining == this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2);
+        }
+        this.position = 0;
+        this.limit = remaining;
+
+        ByteBuffer target = ByteBuffer.wrap(this.bytes, this.limit, this.bytes.length - this.limit);
+        int read = this.channel.read(target);
+        if (read < 0) {
+            this.endOfInput = true;
+        }
+        else {
+            this.limit += read;
+        }
+    }
+
+    private NumberFormatException numberFormatError(int field) {
+        return new NumberFormatException("For input string: \"" + this.getString(field) + "\"");
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0b;
+    }
+}
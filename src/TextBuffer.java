@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte array that save file lines are encoded into. Numbers
+ * are written as ASCII digits straight into the array, so encoding a
+ * record does not build any Strings.
+ */
+final class TextBuffer extends OutputStream
+{
+    private byte[] bytes;
+    private int size;
+
+    public TextBuffer(int capacity) {
+        this.bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void write(int b) {
+        this.ensureCapacity(1);
+        this.bytes[this.size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        this.ensureCapacity(len);
+        System.arraycopy(b, off, this.bytes, this.size, len);
+        this.size += len;
+    }
+
+    public void append(byte[] b) {
+        this.write(b, 0, b.length);
+    }
+
+    public void append(int value) {
+        // The widest int is eleven characters with its sign
+        this.ensureCapacity(11);
+        long remaining = value;
+        if (remaining < 0) {
+            this.bytes[this.size++] = '-';
+            remaining = -remaining;
+        }
+        int start = this.size;
+        do {
+            this.bytes[this.size++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+
+        // The digits went in least significant first
+        for (int i = start, j = this.size - 1; i < j; i++, j--) {
+            byte digit = this.bytes[i];
+            this.bytes[i] = this.bytes[j];
+            this.bytes[j] = digit;
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(this.bytes, 0, this.size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (this.size + extra > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + extra));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * The background tiles changed by one bulk edit, reported to listeners in
+ * a single call. Each change is a cell with its old and new palette index.
+ * The world reuses one instance per thread for every bulk edit, so
+ * listeners must not keep it after the call returns.
+ */
+public final class TileChanges
+{
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int RETAINED_CAPACITY = 1 << 16;
+
+    private int[] cols;
+    private int[] rows;
+    private short[] oldTiles;
+    private short[] newTiles;
+    private int count;
+
+    private int minCol;
+    private int minRow;
+    private int maxCol;
+    private int maxRow;
+
+    TileChanges() {
+        this.allocate(INITIAL_CAPACITY);
+        this.clear();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getCol(int index) {
+        return this.cols[index];
+    }
+
+    public int getRow(int index) {
+        return this.rows[index];
+    }
+
+    public short getOldTile(int index) {
+        return this.oldTiles[index];
+    }
+
+    public short getNewTile(int index) {
+        return this.newTiles[index];
+    }
+
+    /**
+     * The bounds of the changed cells, inclusive. They are only meaningful
+     * when there is at least one change.
+     */
+    public int getMinCol() {
+        return minCol;
+    }
+
+    public int getMinRow() {
+        return minRow;
+    }
+
+    public int getMaxCol() {
+        return maxCol;
+    }
+
+    public int getMaxRow() {
+        return maxRow;
+    }
+
+    void add(int col, int row, short oldTile, short newTile) {
+        if (this.count == this.cols.length) {
+            int capacity = this.count * 2;
+            this.cols = Arrays.copyOf(this.cols, capacity);
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            this.oldTiles = Arrays.copyOf(this.oldTiles, capacity);
+            this.newTiles = Arrays.copyOf(this.newTiles, capacity);
+        }
+        this.cols[this.count] = col;
+        this.rows[this.count] = row;
+        this.oldTiles[this.count] = oldTile;
+        this.newTiles[this.count] = newTile;
+        this.count++;
+
+        this.minCol = Math.min(this.minCol, col);
+        this.minRow = Math.min(this.minRow, row);
+        this.maxCol = Math.max(this.maxCol, col);
+        this.maxRow = Math.max(this.maxRow, row);
+    }
+
+    void clear() {
+        // Arrays grown by a very large edit are not kept around afterwards
+        if (this.cols.length > RETAINED_CAPACITY) {
+            this.allocate(INITIAL_CAPACITY);
+        }
+        this.count = 0;
+        this.minCol = Integer.MAX_VALUE;
+        this.minRow = Integer.MAX_VALUE;
+        this.maxCol = Integer.MIN_VALUE;
+        this.maxRow = Integer.MIN_VALUE;
+    }
+
+    private void allocate(int capacity) {
+        this.cols = new int[capacity];
+        this.rows = new int[capacity];
+        this.oldTiles = new short[capacity];
+        this.newTiles = new short[capacity];
+    }
+}
@@ -0,0 +1,77 @@
+import processing.core.PImage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds one shared Background per texture key. The WorldModel stores the
+ * palette index of each tile instead of a Background object per cell.
+ * Index 0 is always the default background.
+ *
+ * New tiles are added to a copy of the array, which is then published
+ * through a volatile field, so get needs no lock on any thread.
+ */
+public final class TilePalette
+{
+    public static final short DEFAULT_TILE = 0;
+
+    private volatile Background[] tiles;
+    private final Map<String, Integer> indices;
+
+    public TilePalette(Background defaultBackground) {
+        this.tiles = new Background[0];
+        this.indices = new HashMap<>();
+        this.add(defaultBackground);
+    }
+
+    private TilePalette(TilePalette other) {
+        // The array is never written once published, so it can be shared
+        this.tiles = other.tiles;
+        this.indices = new HashMap<>(other.indices);
+    }
+
+    public synchronized TilePalette copy() {
+        return new TilePalette(this);
+    }
+
+    /**
+     * Returns the index of the tile with the given id, adding a new
+     * Background for it if this is the first time the id is seen. Safe to
+     * call from several threads.
+     */
+    public synchronized short intern(String id, List<PImage> images) {
+        Integer index = this.indices.get(id);
+        if (index == null) {
+            return this.add(new Background(id, images));
+        }
+        return (short) index.intValue();
+    }
+
+    public short indexOf(Background background) {
+        return this.intern(background.getId(), background.getImages());
+    }
+
+    public Background get(int index) {
+        return this.tiles[index];
+    }
+
+    public int size() {
+        return this.tiles.length;
+    }
+
+    private short add(Background background) {
+        Background[] tiles = this.tiles;
+        if (tiles.length > Short.MAX_VALUE) {
+            throw new IllegalStateException("tile palette is full");
+        }
+
+        // Palettes hold a few dozen tiles, so copying on every add is cheap
+        Background[] added = Arrays.copyOf(tiles, tiles.length + 1);
+        added[tiles.length] = background;
+        this.tiles = added;
+        this.indices.put(background.getId(), tiles.length);
+        return (short) tiles.length;
+    }
+}
@@ -29,6 +29,19 @@ public final class Tree extends Entity
         this.health = health;
     }
 
+    @Override
+    public int getAnimationPeriod() {
+        return animationPeriod;
+    }
+
+    public int getActionPeriod() {
+        return actionPeriod;
+    }
+
+    public int getHealth() {
+        return health;
+    }
+
     @Override
     protected String _storeLine(String line) {
         return line + " " + animationPeriod + " " + actionPeriod + " " + health;
@@ -38,4 +38,24 @@ public final class Util
         return Math.min(high, Math.max(value, low));
     }
 
+    /**
+     * Draws the ARGB colour source over the opaque colour target.
+     */
+    public static int blendOver(int source, int target) {
+        int alpha = source >>> 24;
+        if (alpha == 0xff) {
+            return source;
+        }
+        if (alpha == 0) {
+            return target;
+        }
+        int pixel = 0xff000000;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int s = (source >>> shift) & 0xff;
+            int t = (target >>> shift) & 0xff;
+            pixel |= ((s * alpha + t * (0xff - alpha) + 0x7f) / 0xff) << shift;
+        }
+        return pixel;
+    }
+
 }
@@ -18,9 +18,29 @@ public final class Viewport
         return new Point(col - this.col, row - this.row);
     }
 
+    public int viewportToWorldCol(int col) {
+        return col + this.col;
+    }
+
+    public int viewportToWorldRow(int row) {
+        return row + this.row;
+    }
+
+    public int worldToViewportCol(int col) {
+        return col - this.col;
+    }
+
+    public int worldToViewportRow(int row) {
+        return row - this.row;
+    }
+
     public boolean contains(Point p) {
-        return p.getY() >= this.row && p.getY() < this.row + this.numRows
-                && p.getX() >= this.col && p.getX() < this.col + this.numCols;
+        return this.contains(p.getX(), p.getY());
+    }
+
+    public boolean contains(int col, int row) {
+        return row >= this.row && row < this.row + this.numRows
+                && col >= this.col && col < this.col + this.numCols;
     }
 
     public void shift(int col, int row) {
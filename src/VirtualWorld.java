@@ -2,8 +2,9 @@ import processing.core.PApplet;
 import processing.core.PImage;
 
 import java.io.*;
-import java.util.*;
-import java.util.stream.Stream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.management.JMException;
 
 
 /*
@@ -25,14 +26,12 @@ import java.util.stream.Stream;
             - mousePressed()
             - keyPressed()
             - setup()
-            - setupBgArray()
-            - writeOutFile()
+            - WorldWriter
             - EditMode
             To add entities, one must also:
             - Add any requisite classes and methods
                 - NOTE: The only data and methods required to be added to this program are the ones that will be stored. Other methods will not be run.
         - Comments throughout the rest of this program should help in reading it
-            - I apologize for the unreadability of setupBgArray()
  */
 
 
@@ -43,35 +42,6 @@ import java.util.stream.Stream;
 public final class VirtualWorld extends PApplet
 {
 
-    // Background tile constants. Add new background tiles here.
-    private static final int GRASS_CONSTANT = 0;
-    private static final int FLOWERS_CONSTANT = 1;
-    private static final int DIRT_CONSTANT = 2;
-    private static final int DIRT_LEFT_CONSTANT = 3;
-    private static final int DIRT_RIGHT_CONSTANT = 4;
-    private static final int DIRT_HORIZ_CONSTANT = 5;
-    private static final int DIRT_LEFT_CORNER_CONSTANT = 6;
-    private static final int DIRT_RIGHT_CORNER_CONSTANT = 7;
-    private static final int DIRT_CORNER_CONSTANT = 8;
-    private static final int BRIDGE_CONSTANT = 9;
-
-    // Texture Keys. New entity and background textures must be listed here and correspond with the constants above.
-    List<String> textureKeys = new ArrayList<>(
-            Arrays.asList(
-                    "grass",
-                    "flowers",
-                    "dirt",
-                    "dirt_vert_left",
-                    "dirt_vert_right",
-                    "dirt_horiz",
-                    "dirt_vert_left_bot",
-                    "dirt_bot_right_up",
-                    "dirt_bot_left_corner",
-                    "bridge"
-            )
-    );
-
-
     // The following 8 variables specify the lower and upper bounds for various constructor parameters that will be
     // randomly generated for newly placed entities.
     private static final int TREE_ANIMATION_PERIOD_LBOUND = 0;
@@ -88,7 +58,6 @@ public final class VirtualWorld extends PApplet
 
 
 
-    private static final int TIMER_ACTION_PERIOD = 100;
 
     private static final int VIEW_WIDTH = 640;
     private static final int VIEW_HEIGHT = 480;
@@ -99,10 +68,13 @@ public final class VirtualWorld extends PApplet
 
     private static final int VIEW_COLS = VIEW_WIDTH / TILE_WIDTH;
     private static final int VIEW_ROWS = VIEW_HEIGHT / TILE_HEIGHT;
+
+    // Size of a new world when the load file is missing. Saved worlds carry their own size.
     private static final int WORLD_COLS = VIEW_COLS * WORLD_WIDTH_SCALE;
     private static final int WORLD_ROWS = VIEW_ROWS * WORLD_HEIGHT_SCALE;
 
     private static final String IMAGE_LIST_FILE_NAME = "imagelist";
+    private static final String IMAGE_CACHE_DIRECTORY = "imagecache";
 
     private static final int DEFAULT_IMAGE_COLOR = 0x808080;
 
@@ -112,37 +84,48 @@ public final class VirtualWorld extends PApplet
     private static final double FAST_SCALE = 0.5;
     private static final double FASTER_SCALE = 0.25;
     private static final double FASTEST_SCALE = 0.10;
+    private static final String CACHE_IMAGES_FLAG = "-cacheimages";
+    private static final String STATS_FLAG = "-stats";
+    private static final String STATS_FILE_NAME = "stats.csv";
+    private static final int STATS_LINE_HEIGHT = 14;
+    private static final int MINIMAP_SIZE = 160;
+    private static final int MINIMAP_MARGIN = 4;
 
     private static double timeScale = 1.0;
+    private static boolean cacheImages = false;
+    private static boolean writeStats = false;
 
 
     // This is the name of the file the program will display. Change it to test new maps.
     private static String LOAD_FILE_NAME = "world.sav";
 
 
-    // outFile is the output file. inFile is the input.
+    // outFile is the output file. LOAD_FILE_NAME is the input.
     // WARNING: BEFORE TESTING A NEW MAP, MAKE SURE "LOAD_FILE_NAME" AND "outFile" ARE DIFFERENT. YOUR DISPLAY FILE WILL
     // BE WIPED IF THEY ARE THE SAME
     private static final String outFile = "output.txt";
-    private static String inFile = "world.sav";
 
 
     // Check the EditMode enum for more information
     private static EditMode editMode = EditMode.DEFAULT;
+    private static Brush brush = Brush.POINT;
 
-    private static final File saveFile = new File(outFile);
-    private static FileWriter fileWriter;
-    private static BufferedReader bufferedReader;
-    private static List<String> worldSavLines = new ArrayList<>();
-
-    private static int[][] bgArray = new int[WORLD_ROWS][WORLD_COLS];
+    // Palette index of each edit mode's background, by EditMode ordinal
+    private short[] modeTiles;
 
     private ImageStore imageStore;
     private WorldModel world;
     private WorldView view;
     private Parser parser;
-
-    private long nextTime;
+    private EditJournal journal;
+    private EditHistory history;
+    private Point brushStart;
+    private EditorStats stats;
+    private boolean showStats;
+    private WorldSaver saver;
+    private Animator animator;
+    private Minimap minimap;
+    private boolean showMinimap = true;
 
     public void settings() {
         size(VIEW_WIDTH, VIEW_HEIGHT);
@@ -155,35 +138,95 @@ public final class VirtualWorld extends PApplet
         this.imageStore = new ImageStore(
                 createImageColored(TILE_WIDTH, TILE_HEIGHT,
                         DEFAULT_IMAGE_COLOR));
-        this.world = new WorldModel(WORLD_ROWS, WORLD_COLS, imageStore.createDefaultBackground());
+        this.world = new WorldModel(0, 0, imageStore.createDefaultBackground());
         this.view = new WorldView(VIEW_ROWS, VIEW_COLS, this, world, TILE_WIDTH,
                 TILE_HEIGHT);
         this.parser = new Parser();
 
+        // Timings are always collected; the overlay (I), JMX and the CSV file only show them
+        this.stats = new EditorStats();
+        try {
+            stats.register();
+        } catch (JMException e) {
+            System.err.println(e.getMessage());
+        }
+        if (writeStats) {
+            try {
+                stats.startCsv(Paths.get(STATS_FILE_NAME));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
 
+        printIntro();
+
+        loadImages(IMAGE_LIST_FILE_NAME, imageStore, this);
+        imageStore.packAtlas();
+
+        // Edits journaled by a session that did not exit cleanly are replayed over the file they were made to
+        Path base = null;
         try {
-            fileWriter = new FileWriter(saveFile);
+            base = EditJournal.recover(Paths.get(outFile), world, parser, imageStore);
+            if (base != null) {
+                System.out.println("Recovered the edits journaled by the last session" + "\n");
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        if (base == null) {
+            loadWorld(world, LOAD_FILE_NAME, parser, imageStore);
+            base = Paths.get(LOAD_FILE_NAME);
+        }
+        if (world.getNumRows() == 0 || world.getNumCols() == 0) {
+            world.ensureSize(WORLD_ROWS, WORLD_COLS);
+        }
+
+        world.setAutotiler(new Autotiler(world.getPalette(), imageStore));
+        history = new EditHistory(world, EditHistory.DEFAULT_CAPACITY);
+        saver = new WorldSaver();
         try {
-            bufferedReader = new BufferedReader(new FileReader(inFile));
-        } catch (FileNotFoundException e) {
+            journal = EditJournal.open(world, Paths.get(outFile), base, saver,
+                    EditJournal.DEFAULT_COMPACT_THRESHOLD);
+        } catch (IOException e) {
             e.printStackTrace();
         }
 
-        Stream<String> lines = bufferedReader.lines();
-        worldSavLines = lines.toList();
-
-        setupBgArray(worldSavLines);
-
-        printIntro();
+        modeTiles = new short[EditMode.values().length];
+        for (EditMode mode : EditMode.values()) {
+            if (mode.isBackgroundMode()) {
+                String key = mode.getBackgroundKey();
+                modeTiles[mode.ordinal()] = world.getPalette().intern(key, imageStore.getImageList(key));
+            }
+        }
 
-        loadImages(IMAGE_LIST_FILE_NAME, imageStore, this);
-        loadWorld(world, LOAD_FILE_NAME, parser, imageStore);
+        animator = new Animator(world, view, timeScale, Animator.DEFAULT_MARGIN);
+        minimap = new Minimap(world, MINIMAP_SIZE);
+    }
 
-        nextTime = System.currentTimeMillis() + TIMER_ACTION_PERIOD;
+    public void dispose() {
+        // Closing the window writes journaled edits to the output file
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            journal = null;
+        }
+        if (saver != null) {
+            saver.shutdown();
+        }
+        if (stats != null) {
+            try {
+                stats.close();
+                stats.unregister();
+            } catch (IOException | JMException e) {
+                e.printStackTrace();
+            }
+        }
+        super.dispose();
     }
 
     public void printIntro() {
@@ -195,100 +238,119 @@ public final class VirtualWorld extends PApplet
         System.out.println("-- Add Flowers (F)");
         System.out.println("-- Add Grass (G)");
         System.out.println("-- Add Tree (T)");
-        System.out.println("-- Add Dirt (D) NOTE: The dirt textures cycle for each click. Paths can be added in this way");
-        System.out.println("-- Remove Entity (R)\n");
+        System.out.println("-- Add Dirt (D) NOTE: Paths join up with the dirt and bridges next to them");
+        System.out.println("-- Remove Entity (R)");
+        System.out.println("-- Undo (Z) and Redo (Y)");
+        System.out.println("-- Show Performance Stats (I)");
+        System.out.println("-- Zoom out (-) and in (+)");
+        System.out.println("-- Show Minimap (M) NOTE: Click on the minimap to jump there");
+        System.out.println("-- Background brush: Point (1), Line (2), Rectangle (3), Flood Fill (4)\n");
         System.out.print("NOTE: Adding a background tile at a spot will replace what was already there.\n" +
                 "      Removing an entity will remove the entity without affecting the background tile.\n" +
-                "      Hit S to save edited map to output file.\n");
+                "      Hit S to save edited map to output file. Saving runs in the background, so editing can\n" +
+                "      continue, and every edit is journaled as it is made in case the program is killed.\n");
     }
 
     public void draw() {
+        stats.beginFrame();
+        animator.update(millis());
         view.drawViewport();
-    }
+        if (showMinimap) {
+            minimap.draw(this, view, VIEW_WIDTH - minimap.getWidth() - MINIMAP_MARGIN, MINIMAP_MARGIN);
+        }
+        stats.endFrame(view.getTilesDrawn(), view.getEntitiesDrawn());
+        if (showStats) {
+            drawStats();
+        }
 
-    private void setupBgArray(List<String> lines) {
-        // bgArray is not strictly necessary, but it helps keep controls concise by making dirt texture cycling easier
-        // Deleting this WILL cause problems
-        for (String line : lines) {
-            String[] attrs = line.split("\\s");
-            if (Objects.equals(attrs[0], "background")) {
-                if (Objects.equals(attrs[1], textureKeys.get(GRASS_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = GRASS_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(FLOWERS_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = FLOWERS_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_LEFT_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_LEFT_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_RIGHT_CORNER_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_RIGHT_CORNER_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_RIGHT_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_RIGHT_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_LEFT_CORNER_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_LEFT_CORNER_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_HORIZ_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_HORIZ_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_CORNER_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_CORNER_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(DIRT_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = DIRT_CONSTANT;
-                } else if (Objects.equals(attrs[1], textureKeys.get(BRIDGE_CONSTANT))) {
-                    bgArray[Integer.parseInt(attrs[3])][Integer.parseInt(attrs[2])] = BRIDGE_CONSTANT;
-                }
-            }
+        if (saver.isSaving()) {
+            fill(255);
+            text("Saving " + (int) (saver.getProgress() * 100) + "%", 4, VIEW_HEIGHT - 4);
+        }
+        if (saver.pollCompleted() > 0) {
+            stats.recordSave(saver.getLastSaveNanos());
+            System.out.println("Save complete. Output written to " + outFile + "\n");
+        }
+        if (saver.pollFailed() > 0) {
+            System.out.println("Save failed. Edits are kept in the journal and will be retried on exit.\n");
         }
     }
 
-    private void writeOutFile(FileWriter fileWriter) throws IOException {
-
-        Background[][] bg = world.getBackground();
-
-        for (int i = 0; i < WORLD_ROWS; i++) {
-            for (int j = 0; j < WORLD_COLS; j++) {
-                String bgLine;
-                String entityLine;
-
-                bgLine = bg[i][j].getStoreLine() + " " + j + " " + i;
-                Optional<Entity> e = world.getOccupant(new Point(j, i));
-
-                fileWriter.write(bgLine);
-                fileWriter.write("\n");
-
-                if (e.isPresent()) {
-                    entityLine = e.get().createStoreLine();
-                    fileWriter.write(entityLine);
-                    fileWriter.write("\n");
-                }
-            }
+    private void drawStats() {
+        String[] lines = {
+                String.format("frame %.2f ms (avg %.2f, max %.2f)", stats.getFrameMillis(),
+                        stats.getAverageFrameMillis(), stats.getMaxFrameMillis()),
+                "drawn " + stats.getTilesDrawn() + " tiles, " + stats.getEntitiesDrawn() + " entities",
+                String.format("edit %.2f ms, save %.0f ms", stats.getEditMillis(), stats.getSaveMillis()),
+                String.format("alloc %.1f MB/s", stats.getAllocationRate() / (1 << 20))
+        };
+        noStroke();
+        fill(0, 160);
+        rect(0, 0, 230, lines.length * STATS_LINE_HEIGHT + 6);
+        fill(255);
+        for (int i = 0; i < lines.length; i++) {
+            text(lines[i], 4, (i + 1) * STATS_LINE_HEIGHT);
         }
     }
 
     public void mousePressed() {
+        if (showMinimap) {
+            Point target = minimap.screenToWorld(mouseX, mouseY);
+            if (target != null) {
+                view.centerOn(target.getX(), target.getY());
+                return;
+            }
+        }
 
+        long start = System.nanoTime();
         Point pressed = mouseToPoint(mouseX, mouseY);
-        System.out.println("CLICK! " + pressed.getX() + ", " + pressed.getY());
+        if (!world.withinBounds(pressed)) {
+            return;
+        }
+        if (editMode.isBackgroundMode() && (brush == Brush.LINE || brush == Brush.RECTANGLE)) {
+            // The stroke is painted when the mouse is released
+            brushStart = pressed;
+            return;
+        }
 
+        // Everything one click changes is undone together
+        history.beginGroup();
+        try {
+            applyEdit(pressed);
+        } finally {
+            history.endGroup();
+        }
+        stats.recordEdit(System.nanoTime() - start);
+    }
+
+    public void mouseReleased() {
+        if (brushStart == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Point released = mouseToPoint(mouseX, mouseY);
+        int col = Util.clamp(released.getX(), 0, world.getNumCols() - 1);
+        int row = Util.clamp(released.getY(), 0, world.getNumRows() - 1);
+        short tile = modeTiles[editMode.ordinal()];
+
+        if (brush == Brush.LINE) {
+            world.paintLine(brushStart.getX(), brushStart.getY(), col, row, tile);
+        } else {
+            world.fillRect(Math.min(brushStart.getX(), col), Math.min(brushStart.getY(), row),
+                    Math.abs(col - brushStart.getX()) + 1, Math.abs(row - brushStart.getY()) + 1, tile);
+        }
+        brushStart = null;
+        stats.recordEdit(System.nanoTime() - start);
+    }
+
+    private void applyEdit(Point pressed) {
         switch (editMode) {
             case GRASS:
-                bgArray[pressed.y][pressed.x] = GRASS_CONSTANT;
-                world.setBackground(pressed, new Background("grass", imageStore.getImageList("grass")));
-                break;
             case FLOWERS:
-                bgArray[pressed.y][pressed.x] = FLOWERS_CONSTANT;
-                world.setBackground(pressed, new Background("flowers", imageStore.getImageList("flowers")));
-                break;
             case DIRT:
-                System.out.println(bgArray[pressed.y][pressed.x]);
-                if (bgArray[pressed.y][pressed.x] < 2 || bgArray[pressed.y][pressed.x] > 8) {
-                    world.setBackground(pressed, new Background("dirt", imageStore.getImageList("dirt")));
-                    bgArray[pressed.y][pressed.x] = DIRT_CONSTANT;
-                } else {
-                    bgArray[pressed.y][pressed.x] = (((bgArray[pressed.y][pressed.x] - 2) + 1) % 8) + 2;
-                    world.setBackground(pressed, new Background(textureKeys.get(bgArray[pressed.y][pressed.x]),
-                            imageStore.getImageList(textureKeys.get(bgArray[pressed.y][pressed.x]))));
-                }
-                break;
             case BRIDGE:
-                bgArray[pressed.y][pressed.x] = BRIDGE_CONSTANT;
-                world.setBackground(pressed, new Background("bridge", imageStore.getImageList("bridge")));
+                // Dirt is autotiled, so the path variant is picked from the neighbouring tiles
+                paintBackground(pressed, modeTiles[editMode.ordinal()]);
                 break;
             case HOUSE:
                 if (!world.isOccupied(pressed)) {
@@ -323,12 +385,19 @@ public final class VirtualWorld extends PApplet
             case DEFAULT:
                 break;
         }
+    }
 
+    private void paintBackground(Point pos, short tile) {
+        if (brush == Brush.FILL) {
+            world.floodFill(pos.getX(), pos.getY(), tile);
+        } else {
+            world.setBackgroundTile(pos, tile);
+        }
     }
 
     private Point mouseToPoint(int x, int y)
     {
-        return view.getViewport().viewportToWorld(mouseX/TILE_WIDTH, mouseY/TILE_HEIGHT);
+        return new Point(view.screenToWorldCol(x), view.screenToWorldRow(y));
     }
 
     public void keyPressed() {
@@ -359,20 +428,39 @@ public final class VirtualWorld extends PApplet
         } else if (key == 'r' || key == 'R') {
             editMode = EditMode.REMOVE;
             System.out.println("Current edit mode: Remove Entity");
+        } else if (key >= '1' && key <= '4') {
+            brush = Brush.values()[key - '1'];
+            System.out.println("Current brush: " + brush);
+        } else if (key == '-' || key == '_') {
+            view.setZoom(view.getZoom() + 1);
+        } else if (key == '+' || key == '=') {
+            view.setZoom(view.getZoom() - 1);
+        } else if (key == 'm' || key == 'M') {
+            showMinimap = !showMinimap;
+        } else if (key == 'i' || key == 'I') {
+            showStats = !showStats;
+        } else if (key == 'z' || key == 'Z') {
+            if (!history.undo()) {
+                System.out.println("Nothing to undo");
+            }
+        } else if (key == 'y' || key == 'Y') {
+            if (!history.redo()) {
+                System.out.println("Nothing to redo");
+            }
         } else if (key == 's' || key == 'S') {
 
-            System.out.println("\nSaving output. Do not close program...");
-            try {
-                writeOutFile(fileWriter);
-            } catch (IOException e) {
-                e.printStackTrace();
+            // The journal makes the edits durable right away; the full file is written in the background
+            if (journal.getEdits() == 0) {
+                System.out.println("\nNo edits since the last save.");
+            } else {
+                System.out.println("\nSaving output in the background. Editing can continue.");
             }
             try {
-                fileWriter.close();
+                journal.sync();
+                journal.compact();
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            System.out.println("Save complete. Program may be closed.\n");
         }
 
 
@@ -410,11 +498,11 @@ public final class VirtualWorld extends PApplet
     public void loadImages(
             String filename, ImageStore imageStore, PApplet screen)
     {
-        try {
-            Scanner in = new Scanner(new File(filename));
-            parser.loadImages(in, screen, imageStore);
+        try (RecordReader in = RecordReader.open(new File(filename).toPath())) {
+            ImageCache cache = cacheImages ? new ImageCache(Paths.get(IMAGE_CACHE_DIRECTORY)) : null;
+            parser.loadImages(in, screen, imageStore, cache);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
@@ -422,11 +510,21 @@ public final class VirtualWorld extends PApplet
     public static void loadWorld(
             WorldModel world, String filename, Parser parser, ImageStore imageStore)
     {
-        try {
-            Scanner in = new Scanner(new File(filename));
+        File file = new File(filename);
+        if (BinaryWorldFile.isBinary(file.toPath())) {
+            try {
+                BinaryWorldFile.load(file.toPath(), world, imageStore);
+            }
+            catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            return;
+        }
+
+        try (RecordReader in = RecordReader.open(file.toPath())) {
             parser.load(in, world, imageStore);
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
@@ -451,6 +549,12 @@ public final class VirtualWorld extends PApplet
                 case FASTEST_FLAG:
                     timeScale = Math.min(FASTEST_SCALE, timeScale);
                     break;
+                case CACHE_IMAGES_FLAG:
+                    cacheImages = true;
+                    break;
+                case STATS_FLAG:
+                    writeStats = true;
+                    break;
             }
         }
     }
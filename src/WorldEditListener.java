@@ -0,0 +1,24 @@
+/**
+ * Receives every edit made to a WorldModel after it has been applied.
+ * Bulk loading of whole chunks does not report edits. Bulk edits such as
+ * fills report all of their tiles in one tilesChanged call.
+ */
+public interface WorldEditListener
+{
+    void backgroundChanged(int col, int row, short oldTile, short newTile);
+
+    /**
+     * Called once for a bulk edit. By default each tile is passed on to
+     * backgroundChanged.
+     */
+    default void tilesChanged(TileChanges changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            this.backgroundChanged(changes.getCol(i), changes.getRow(i),
+                    changes.getOldTile(i), changes.getNewTile(i));
+        }
+    }
+
+    void entityAdded(Entity entity);
+
+    void entityRemoved(Entity entity, int col, int row);
+}
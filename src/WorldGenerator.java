@@ -0,0 +1,407 @@
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+    World Generator
+
+    Creates a new map from a seed, without a window:
+
+        java WorldGenerator [-seed n] [-threads n] cols rows output
+
+    Water, paths and flower fields come from value noise, which depends only on the seed and the tile, so chunks
+    can be generated in any order and on any thread and still join up. Trees, houses and the timing of each entity
+    come from a random generator seeded from the seed and the chunk, so the same seed always gives the same map.
+
+    Text output is written one row of chunks at a time, so the whole map is never held in memory, and is compressed
+    when output ends in .gz. Binary output (.wsav) is generated into a WorldModel first.
+ */
+
+public final class WorldGenerator
+{
+    private static final String SEED_FLAG = "-seed";
+    private static final String THREADS_FLAG = "-threads";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int TILE_WIDTH = 32;
+    private static final int TILE_HEIGHT = 32;
+
+    private static final double WATER_SCALE = 24;
+    private static final double WATER_LEVEL = 0.3;
+    private static final double PATH_SCALE = 40;
+    private static final double FLOWER_SCALE = 12;
+    private static final double FLOWER_LEVEL = 0.65;
+    private static final double TREE_CHANCE = 0.05;
+    private static final double HOUSE_CHANCE = 0.01;
+
+    private static final int TREE_ANIMATION_PERIOD_LBOUND = 0;
+    private static final int TREE_ANIMATION_PERIOD_UBOUND = 1100;
+    private static final int TREE_ACTION_PERIOD_LBOUND = 1000;
+    private static final int TREE_ACTION_PERIOD_UBOUND = 1100;
+    private static final int TREE_HEALTH_LBOUND = 1;
+    private static final int TREE_HEALTH_UBOUND = 3;
+    private static final int OBSTACLE_ANIMATION_PERIOD_LBOUND = 1000;
+    private static final int OBSTACLE_ANIMATION_PERIOD_UBOUND = 1200;
+
+    // Tile codes: the fixed textures, then one path code per neighbour mask
+    private static final int GRASS = 0;
+    private static final int FLOWERS = 1;
+    private static final int BRIDGE = 2;
+    private static final int PATH = 3;
+    private static final String[] KEYS = new String[PATH + 16];
+
+    static {
+        KEYS[GRASS] = "grass";
+        KEYS[FLOWERS] = "flowers";
+        KEYS[BRIDGE] = "bridge";
+        for (int mask = 0; mask < 16; mask++) {
+            KEYS[PATH + mask] = Autotiler.variantKey(mask);
+        }
+    }
+
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    public WorldGenerator(long seed, int threads) {
+        this.seed = seed;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Fills world with generated terrain. Chunks are generated in parallel
+     * and then placed into the world on the calling thread.
+     */
+    public void generate(WorldModel world, ImageStore imageStore) throws IOException {
+        int numCols = world.getNumCols();
+        int numRows = world.getNumRows();
+        short[] tiles = new short[KEYS.length];
+        for (int code = 0; code < KEYS.length; code++) {
+            tiles[code] = world.getPalette().intern(KEYS[code], imageStore.getImageList(KEYS[code]));
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        byte[][] codes = new byte[world.getChunkRows() * world.getChunkCols()][];
+        EntityStore[] entities = new EntityStore[codes.length];
+        for (int chunkRow = 0; chunkRow < world.getChunkRows(); chunkRow++) {
+            for (int chunkCol = 0; chunkCol < world.getChunkCols(); chunkCol++) {
+                int chunk = chunkRow * world.getChunkCols() + chunkCol;
+                int col = chunkCol;
+                int row = chunkRow;
+                tasks.add(() -> {
+                    codes[chunk] = new byte[Chunk.AREA];
+                    entities[chunk] = new EntityStore(imageStore);
+                    this.generateChunk(col, row, numCols, numRows, codes[chunk],
+                            entities[chunk], new int[Chunk.AREA], 0, Chunk.SIZE);
+                    return null;
+                });
+            }
+        }
+        this.runAll(tasks);
+
+        for (int chunkRow = 0; chunkRow < world.getChunkRows(); chunkRow++) {
+            for (int chunkCol = 0; chunkCol < world.getChunkCols(); chunkCol++) {
+                int chunk = chunkRow * world.getChunkCols() + chunkCol;
+                short[] chunkTiles = new short[Chunk.AREA];
+                for (int cell = 0; cell < Chunk.AREA; cell++) {
+                    int col = (chunkCol << Chunk.SHIFT) + (cell & Chunk.MASK);
+                    int row = (chunkRow << Chunk.SHIFT) + (cell >> Chunk.SHIFT);
+                    chunkTiles[cell] = col < numCols && row < numRows
+                            ? tiles[codes[chunk][cell]] : TilePalette.DEFAULT_TILE;
+                }
+                world.setChunkTiles(chunkCol, chunkRow, chunkTiles);
+                EntityStore store = entities[chunk];
+                store.forEach(handle -> world.addEntity(store.toEntity(handle)));
+            }
+        }
+    }
+
+    /**
+     * Generates a world of the given size straight into a text save file,
+     * compressed when path ends in WorldWriter.GZIP_EXTENSION. Only one
+     * row of chunks is held in memory at a time, and each row of chunks is
+     * generated and encoded in parallel. Lines are encoded by WorldWriter,
+     * so the file is the one saving the generated world would write.
+     */
+    public void write(Path path, int numCols, int numRows, ImageStore imageStore) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+        boolean compress = WorldWriter.isCompressed(path);
+        int chunkCols = (numCols + Chunk.MASK) >> Chunk.SHIFT;
+        byte[] codes = new byte[Chunk.SIZE * numCols];
+        // Entities are kept as handles into a store per chunk, so none is created as an object
+        EntityStore[] entities = new EntityStore[chunkCols];
+        int[] handles = new int[Chunk.SIZE * numCols];
+
+        // The start of the background line of each tile code
+        TilePalette palette = new TilePalette(imageStore.createDefaultBackground());
+        short[] tiles = new short[KEYS.length];
+        for (int code = 0; code < KEYS.length; code++) {
+            tiles[code] = palette.intern(KEYS[code], imageStore.getImageList(KEYS[code]));
+        }
+        byte[][] paletteLines = WorldWriter.backgroundLines(palette);
+        byte[][] backgrounds = new byte[KEYS.length][];
+        for (int code = 0; code < KEYS.length; code++) {
+            backgrounds[code] = paletteLines[tiles[code]];
+        }
+
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            WorldWriter.writeHeader(out, numCols, numRows, compress);
+
+            for (int chunkRow = 0; chunkRow << Chunk.SHIFT < numRows; chunkRow++) {
+                int firstRow = chunkRow << Chunk.SHIFT;
+                int bandRows = Math.min(Chunk.SIZE, numRows - firstRow);
+                List<Callable<Void>> chunks = new ArrayList<>();
+                for (int chunkCol = 0; chunkCol < chunkCols; chunkCol++) {
+                    int col = chunkCol;
+                    int row = chunkRow;
+                    chunks.add(() -> {
+                        entities[col] = new EntityStore(imageStore);
+                        this.generateChunk(col, row, numCols, numRows, codes,
+                                entities[col], handles, col << Chunk.SHIFT, numCols);
+                        return null;
+                    });
+                }
+                this.runAll(chunks);
+
+                List<Callable<TextBuffer>> rows = new ArrayList<>();
+                for (int i = 0; i < bandRows; i++) {
+                    int bandRow = i;
+                    rows.add(() -> WorldWriter.finish(rowText(backgrounds, codes, entities, handles,
+                            bandRow, firstRow + bandRow, numCols), compress));
+                }
+                for (TextBuffer text : this.runAll(rows)) {
+                    text.writeTo(out);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * Generates one chunk. The tile code of each tile is put in codes, and
+     * the handle of its entity in entities, or EntityStore.NO_ENTITY, in
+     * handles.
+     */
+    private void generateChunk(
+            int chunkCol, int chunkRow, int numCols, int numRows,
+            byte[] codes, EntityStore entities, int[] handles, int offset, int stride)
+    {
+        int baseCol = chunkCol << Chunk.SHIFT;
+        int baseRow = chunkRow << Chunk.SHIFT;
+
+        // Paths run along one side of the contour of a noise field. The field is sampled two tiles
+        // past the chunk so paths and their neighbours are known one tile past it.
+        int sideWidth = Chunk.SIZE + 4;
+        boolean[] side = new boolean[sideWidth * sideWidth];
+        for (int r = 0; r < sideWidth; r++) {
+            for (int c = 0; c < sideWidth; c++) {
+                side[r * sideWidth + c] = this.fractalNoise(1,
+                        (baseCol + c - 2) / PATH_SCALE, (baseRow + r - 2) / PATH_SCALE) < 0.5;
+            }
+        }
+        int width = Chunk.SIZE + 2;
+        boolean[] path = new boolean[width * width];
+        boolean[] water = new boolean[width * width];
+        for (int r = 0; r < width; r++) {
+            for (int c = 0; c < width; c++) {
+                int center = (r + 1) * sideWidth + c + 1;
+                boolean edge = false;
+                for (int dr = -1; dr <= 1; dr++) {
+                    for (int dc = -1; dc <= 1; dc++) {
+                        edge |= !side[center + dr * sideWidth + dc];
+                    }
+                }
+                path[r * width + c] = side[center] && edge;
+                water[r * width + c] = this.fractalNoise(0,
+                        (baseCol + c - 1) / WATER_SCALE, (baseRow + r - 1) / WATER_SCALE) < WATER_LEVEL;
+            }
+        }
+
+        SplittableRandom random = new SplittableRandom(mix(this.seed ^ mix(((long) chunkCol << 32) | chunkRow)));
+        for (int r = 0; r < Chunk.SIZE; r++) {
+            for (int c = 0; c < Chunk.SIZE; c++) {
+                int col = baseCol + c;
+                int row = baseRow + r;
+                if (col >= numCols || row >= numRows) {
+                    continue;
+                }
+                int cell = (r + 1) * width + c + 1;
+                int index = offset + r * stride + c;
+                handles[index] = EntityStore.NO_ENTITY;
+
+                if (path[cell]) {
+                    codes[index] = (byte) (water[cell] ? BRIDGE
+                            : PATH + this.pathMask(path, cell, width, col, row, numCols, numRows));
+                }
+                else if (water[cell]) {
+                    codes[index] = GRASS;
+                    handles[index] = entities.addObstacle(col, row, random.nextInt(
+                            OBSTACLE_ANIMATION_PERIOD_LBOUND, OBSTACLE_ANIMATION_PERIOD_UBOUND));
+                }
+                else {
+                    boolean flowers = this.fractalNoise(2, col / FLOWER_SCALE, row / FLOWER_SCALE) > FLOWER_LEVEL;
+                    codes[index] = (byte) (flowers ? FLOWERS : GRASS);
+                    boolean byPath = path[cell - width] || path[cell + 1] || path[cell + width] || path[cell - 1];
+                    if (byPath && random.nextDouble() < HOUSE_CHANCE) {
+                        handles[index] = entities.addHouse(col, row);
+                    }
+                    else if (random.nextDouble() < TREE_CHANCE) {
+                        handles[index] = entities.addTree(col, row,
+                                random.nextInt(TREE_ANIMATION_PERIOD_LBOUND, TREE_ANIMATION_PERIOD_UBOUND),
+                                random.nextInt(TREE_ACTION_PERIOD_LBOUND, TREE_ACTION_PERIOD_UBOUND),
+                                random.nextInt(TREE_HEALTH_LBOUND, TREE_HEALTH_UBOUND));
+                    }
+                }
+            }
+        }
+    }
+
+    private int pathMask(boolean[] path, int cell, int width, int col, int row, int numCols, int numRows) {
+        // Tiles past the edge of the world never connect, as with the Autotiler
+        int mask = 0;
+        if (row > 0 && path[cell - width]) {
+            mask |= Autotiler.NORTH;
+        }
+        if (col < numCols - 1 && path[cell + 1]) {
+            mask |= Autotiler.EAST;
+        }
+        if (row < numRows - 1 && path[cell + width]) {
+            mask |= Autotiler.SOUTH;
+        }
+        if (col > 0 && path[cell - 1]) {
+            mask |= Autotiler.WEST;
+        }
+        return mask;
+    }
+
+    private static TextBuffer rowText(
+            byte[][] backgrounds, byte[] codes, EntityStore[] entities, int[] handles,
+            int bandRow, int row, int numCols)
+    {
+        TextBuffer text = new TextBuffer(numCols * WorldWriter.BYTES_PER_TILE);
+        for (int col = 0; col < numCols; col++) {
+            int index = bandRow * numCols + col;
+            int handle = handles[index];
+            WorldWriter.appendTile(text, backgrounds[codes[index]],
+                    handle == EntityStore.NO_ENTITY ? null : entities[col >> Chunk.SHIFT].createStoreLine(handle),
+                    col, row);
+        }
+        return text;
+    }
+
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> result : this.pool.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while generating", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("could not generate world", e.getCause());
+        }
+        return results;
+    }
+
+    private double fractalNoise(int layer, double x, double y) {
+        // Two octaves of value noise, in [0, 1)
+        long layerSeed = mix(this.seed + layer);
+        return (2 * valueNoise(layerSeed, x, y) + valueNoise(layerSeed + 1, 2 * x, 2 * y)) / 3;
+    }
+
+    private static double valueNoise(long seed, double x, double y) {
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        double u = smooth(x - x0);
+        double v = smooth(y - y0);
+        double top = lerp(lattice(seed, x0, y0), lattice(seed, x0 + 1, y0), u);
+        double bottom = lerp(lattice(seed, x0, y0 + 1), lattice(seed, x0 + 1, y0 + 1), u);
+        return lerp(top, bottom, v);
+    }
+
+    private static double lattice(long seed, int x, int y) {
+        long hash = mix(seed ^ (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL));
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix(long z) {
+        // The SplitMix64 finaliser
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int next = 0;
+        while (next < args.length && args[next].startsWith("-")) {
+            switch (args[next]) {
+                case SEED_FLAG:
+                    seed = Long.parseLong(args[++next]);
+                    break;
+                case THREADS_FLAG:
+                    threads = Integer.parseInt(args[++next]);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[next]);
+                    System.exit(2);
+            }
+            next++;
+        }
+        if (args.length - next != 3) {
+            System.err.println("usage: WorldGenerator [-seed n] [-threads n] cols rows output");
+            System.exit(2);
+        }
+        int numCols = Integer.parseInt(args[next]);
+        int numRows = Integer.parseInt(args[next + 1]);
+        Path output = Paths.get(args[next + 2]);
+
+        // Nothing is drawn, so every texture key can share one blank image
+        ImageStore imageStore = new ImageStore(new PImage(TILE_WIDTH, TILE_HEIGHT, PApplet.RGB));
+        WorldGenerator generator = new WorldGenerator(seed, threads);
+        long start = System.nanoTime();
+        try {
+            if (output.toString().endsWith(BinaryWorldFile.EXTENSION)) {
+                WorldModel world = new WorldModel(numRows, numCols, imageStore.createDefaultBackground());
+                generator.generate(world, imageStore);
+                WorldWriter.save(world, output);
+            }
+            else {
+                generator.write(output, numCols, numRows, imageStore);
+            }
+        }
+        finally {
+            generator.shutdown();
+        }
+        System.out.println(String.format("Generated %d x %d world with seed %d in %d ms",
+                numCols, numRows, seed, (System.nanoTime() - start) / 1000000));
+    }
+}
@@ -1,45 +1,141 @@
 import processing.core.PImage;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Represents the 2D World in which this simulation is running.
  * Keeps track of the size of the world, the background image for each
  * location in the world, and the entities that populate the world.
+ *
+ * Tiles are stored in fixed size chunks that are allocated on first use,
+ * so untouched areas of a large world only cost one null reference each.
+ * Each tile is a TilePalette index rather than its own Background.
+ *
+ * Edits that touch different chunks may run on different threads at the
+ * same time, as long as the caller keeps other threads out of the chunks
+ * an edit touches, and out of their neighbours when autotiling. Each
+ * thread collects its bulk edits in its own TileChanges, and the entity
+ * set is concurrent. See EditServer.
  */
 public final class WorldModel
 {
-    private final int numRows;
-    private final int numCols;
-    private final Background background[][];
-    private final Entity occupancy[][];
-    private final Set<Entity> entities;
+    private int numRows;
+    private int numCols;
+    private int chunkRows;
+    private int chunkCols;
+    private Chunk[] chunks;
+    private int epoch;
+    private final TilePalette palette;
+    private Set<Entity> entities;
+    private final List<WorldEditListener> editListeners;
+    private final ThreadLocal<TileChanges> tileChanges;
+    private Autotiler autotiler;
 
     public WorldModel(int numRows, int numCols, Background defaultBackground) {
-        this.numRows = numRows;
-        this.numCols = numCols;
-        this.background = new Background[numRows][numCols];
-        this.occupancy = new Entity[numRows][numCols];
-        this.entities = new HashSet<>();
+        this.palette = new TilePalette(defaultBackground);
+        this.entities = ConcurrentHashMap.newKeySet();
+        this.editListeners = new ArrayList<>();
+        this.tileChanges = ThreadLocal.withInitial(TileChanges::new);
+        this.chunks = new Chunk[0];
+        this.ensureSize(numRows, numCols);
+    }
+
+    private WorldModel(WorldModel other) {
+        this.numRows = other.numRows;
+        this.numCols = other.numCols;
+        this.chunkRows = other.chunkRows;
+        this.chunkCols = other.chunkCols;
+        this.chunks = other.chunks.clone();
+        this.epoch = other.epoch;
+        this.palette = other.palette.copy();
+        this.editListeners = new ArrayList<>();
+        this.tileChanges = ThreadLocal.withInitial(TileChanges::new);
+    }
+
+    /**
+     * Returns a copy of this world that later edits do not affect, for
+     * writing out on another thread. Chunks are shared until either world
+     * writes to them, so this only costs one reference per chunk. Entities
+     * are shared too, so writers must take positions from the cells rather
+     * than from the entities. Edit listeners are not copied.
+     */
+    public WorldModel copy() {
+        // Both worlds move to a new epoch, so neither writes to a shared chunk
+        this.epoch++;
+        return new WorldModel(this);
+    }
+
+    public void addEditListener(WorldEditListener listener) {
+        this.editListeners.add(listener);
+    }
 
-        for (int row = 0; row < numRows; row++) {
-            Arrays.fill(this.background[row], defaultBackground);
+    public void removeEditListener(WorldEditListener listener) {
+        this.editListeners.remove(listener);
+    }
+
+    /**
+     * Sets the autotiler that picks path variants around every changed
+     * tile, or null for none. Copies of the world do not autotile.
+     */
+    public void setAutotiler(Autotiler autotiler) {
+        this.autotiler = autotiler;
+    }
+
+    public Autotiler getAutotiler() {
+        return autotiler;
+    }
+
+    /**
+     * Grows the world so that it is at least numRows by numCols tiles.
+     * Existing tiles and entities are kept where they are.
+     */
+    public void ensureSize(int numRows, int numCols) {
+        int newRows = Math.max(this.numRows, numRows);
+        int newCols = Math.max(this.numCols, numCols);
+        int newChunkRows = (newRows + Chunk.MASK) >> Chunk.SHIFT;
+        int newChunkCols = (newCols + Chunk.MASK) >> Chunk.SHIFT;
+
+        if (newChunkRows != this.chunkRows || newChunkCols != this.chunkCols) {
+            Chunk[] resized = new Chunk[newChunkRows * newChunkCols];
+            for (int row = 0; row < this.chunkRows; row++) {
+                System.arraycopy(this.chunks, row * this.chunkCols,
+                        resized, row * newChunkCols, this.chunkCols);
+            }
+            this.chunks = resized;
+            this.chunkRows = newChunkRows;
+            this.chunkCols = newChunkCols;
         }
+
+        this.numRows = newRows;
+        this.numCols = newCols;
     }
 
     public boolean withinBounds(Point pos) {
-        return pos.getY() >= 0 && pos.getY() < this.numRows && pos.getX() >= 0
-                && pos.getX() < this.numCols;
+        return this.withinBounds(pos.getX(), pos.getY());
     }
+
+    public boolean withinBounds(int col, int row) {
+        return row >= 0 && row < this.numRows && col >= 0 && col < this.numCols;
+    }
+
     public boolean isOccupied(Point pos) {
-        return this.withinBounds(pos) && getOccupancyCell(pos) != null;
+        return this.isOccupied(pos.getX(), pos.getY());
+    }
+
+    public boolean isOccupied(int col, int row) {
+        return this.withinBounds(col, row) && this.getOccupancyCell(col, row) != null;
     }
 
     public void addEntity(Entity entity) {
         // Adds entity to the world
         if (this.withinBounds(entity.getPosition())) {
             setOccupancyCell(entity.getPosition(), entity);
-            this.entities.add(entity);
+            this.getEntities().add(entity);
+            for (WorldEditListener listener : this.editListeners) {
+                listener.entityAdded(entity);
+            }
         }
     }
 
@@ -54,19 +150,86 @@ public final class WorldModel
             /* This moves the entity just outside of the grid for
              * debugging purposes. */
             entity.setPosition(new Point(-1, -1));
-            this.entities.remove(entity);
+            this.getEntities().remove(entity);
             this.setOccupancyCell(pos, null);
+            for (WorldEditListener listener : this.editListeners) {
+                listener.entityRemoved(entity, pos.getX(), pos.getY());
+            }
         }
     }
 
+    /**
+     * Moves an entity that is in the world to pos. Listeners see this as
+     * the entity being removed and added again.
+     */
+    public void moveEntity(Entity entity, Point pos) {
+        if (this.isOccupied(pos)) {
+            throw new IllegalArgumentException("position occupied");
+        }
+        if (this.withinBounds(pos)) {
+            this.removeEntity(entity);
+            entity.setPosition(pos);
+            this.addEntity(entity);
+        }
+    }
+
+    /**
+     * Calls action for every entity inside the given rectangle of tiles.
+     * Only the chunks overlapping the rectangle are visited, so the cost
+     * depends on the size of the rectangle rather than on the number of
+     * entities in the world. The world must not be changed by action.
+     */
+    public void forEachEntityIn(
+            int col, int row, int numCols, int numRows, Consumer<Entity> action)
+    {
+        int minCol = Math.max(col, 0);
+        int minRow = Math.max(row, 0);
+        int maxCol = Math.min(col + numCols, this.numCols) - 1;
+        int maxRow = Math.min(row + numRows, this.numRows) - 1;
+
+        for (int chunkRow = minRow >> Chunk.SHIFT; chunkRow <= maxRow >> Chunk.SHIFT; chunkRow++) {
+            for (int chunkCol = minCol >> Chunk.SHIFT; chunkCol <= maxCol >> Chunk.SHIFT; chunkCol++) {
+                Chunk chunk = this.chunks[chunkRow * this.chunkCols + chunkCol];
+                if (chunk == null) {
+                    continue;
+                }
+
+                List<Entity> bucket = chunk.getEntities();
+                for (int i = 0; i < bucket.size(); i++) {
+                    Entity entity = bucket.get(i);
+                    Point pos = entity.getPosition();
+                    if (pos.getX() >= minCol && pos.getX() <= maxCol
+                            && pos.getY() >= minRow && pos.getY() <= maxRow) {
+                        action.accept(entity);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<Entity> getEntitiesIn(int col, int row, int numCols, int numRows) {
+        List<Entity> found = new ArrayList<>();
+        this.forEachEntityIn(col, row, numCols, numRows, found::add);
+        return found;
+    }
+
     public Entity getOccupancyCell(Point pos) {
-        return this.occupancy[pos.getY()][pos.getX()];
+        return this.getOccupancyCell(pos.getX(), pos.getY());
+    }
+
+    public Entity getOccupancyCell(int col, int row) {
+        Chunk chunk = this.getChunk(col, row);
+        return chunk == null ? null : chunk.getOccupant(Chunk.cellIndex(col, row));
     }
 
     public void setOccupancyCell(
             Point pos, Entity entity)
     {
-        this.occupancy[pos.getY()][pos.getX()] = entity;
+        if (entity != null || this.getChunk(pos.getX(), pos.getY()) != null) {
+            Chunk chunk = this.getWritableChunk(pos.getX(), pos.getY());
+            chunk.setOccupant(Chunk.cellIndex(pos.getX(), pos.getY()), entity);
+            this.releaseIfEmpty(pos.getX(), pos.getY(), chunk);
+        }
     }
 
     public Optional<Entity> getOccupant(Point pos) {
@@ -96,11 +259,25 @@ public final class WorldModel
         return numCols;
     }
 
-    public Background[][] getBackground() {
-        return background;
+    public Background getDefaultBackground() {
+        return this.palette.get(TilePalette.DEFAULT_TILE);
+    }
+
+    public TilePalette getPalette() {
+        return palette;
     }
 
     public Set<Entity> getEntities() {
+        if (this.entities == null) {
+            // Copies collect their entities from the chunks when first asked
+            Set<Entity> entities = ConcurrentHashMap.newKeySet();
+            for (Chunk chunk : this.chunks) {
+                if (chunk != null) {
+                    entities.addAll(chunk.getEntities());
+                }
+            }
+            this.entities = entities;
+        }
         return entities;
     }
 
@@ -116,25 +293,363 @@ public final class WorldModel
         }
     }
 
+    /**
+     * Like getBackgroundImage(Point), but returns null outside the world
+     * instead of allocating an Optional, for use in the render loop.
+     */
+    public PImage getBackgroundImage(int col, int row) {
+        return this.withinBounds(col, row)
+                ? this.getBackgroundCell(col, row).getCurrentImage() : null;
+    }
+
     public void setBackground(
             Point pos, Background background)
     {
-        if (this.withinBounds(pos)) {
-            this.setBackgroundCell(pos, background);
+        this.setBackgroundTile(pos, this.palette.indexOf(background));
+    }
+
+    public void setBackgroundTile(Point pos, short tile) {
+        this.setBackgroundTile(pos.getX(), pos.getY(), tile);
+    }
+
+    public void setBackgroundTile(int col, int row, short tile) {
+        if (this.autotiler != null) {
+            // The neighbours may change too, so this is reported as a bulk edit
+            if (this.withinBounds(col, row)) {
+                TileChanges changes = this.tileChanges.get();
+                this.putTile(col, row, tile, changes);
+                this.fireTilesChanged(changes);
+            }
+            return;
+        }
+        if (this.withinBounds(col, row)) {
+            short previous = this.getBackgroundTile(col, row);
+            if (previous != tile) {
+                Chunk chunk = this.getWritableChunk(col, row);
+                chunk.setTile(Chunk.cellIndex(col, row), tile);
+                this.releaseIfEmpty(col, row, chunk);
+                for (WorldEditListener listener : this.editListeners) {
+                    listener.backgroundChanged(col, row, previous, tile);
+                }
+            }
         }
     }
 
-    private Background getBackgroundCell(Point pos) {
-        return this.getBackground()[pos.getY()][pos.getX()];
+    /**
+     * Sets the background of every tile in a rectangle, clipped to the
+     * world. Listeners are told about all changed tiles in one call.
+     */
+    public void fillRect(int col, int row, int numCols, int numRows, short tile) {
+        int minCol = Math.max(col, 0);
+        int minRow = Math.max(row, 0);
+        int maxCol = Math.min(col + numCols, this.numCols) - 1;
+        int maxRow = Math.min(row + numRows, this.numRows) - 1;
+
+        TileChanges changes = this.tileChanges.get();
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minCol; c <= maxCol; c++) {
+                this.putTile(c, r, tile, changes);
+            }
+        }
+        this.fireTilesChanged(changes);
     }
 
-    private void setBackgroundCell(
-            Point pos, Background background)
-    {
-        this.getBackground()[pos.getY()][pos.getX()] = background;
+    /**
+     * Replaces the background of the area of same textured tiles that
+     * contains (col, row) with tile. Tiles are connected through their
+     * edges. Listeners are told about all changed tiles in one call.
+     */
+    public void floodFill(int col, int row, short tile) {
+        if (row < 0 || row >= this.numRows || col < 0 || col >= this.numCols) {
+            return;
+        }
+        short target = this.getBackgroundTile(col, row);
+        if (target == tile) {
+            return;
+        }
+
+        // Scanline fill: each seed is widened to a whole run of the row, then
+        // one seed is pushed for every run of matching tiles above and below it
+        TileChanges changes = this.tileChanges.get();
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = col;
+        stack[size++] = row;
+        while (size > 0) {
+            int r = stack[--size];
+            int c = stack[--size];
+            if (this.getBackgroundTile(c, r) != target) {
+                continue;
+            }
+
+            int left = c;
+            while (left > 0 && this.getBackgroundTile(left - 1, r) == target) {
+                left--;
+            }
+            int right = c;
+            while (right < this.numCols - 1 && this.getBackgroundTile(right + 1, r) == target) {
+                right++;
+            }
+            for (int i = left; i <= right; i++) {
+                this.putTile(i, r, tile, changes);
+            }
+
+            for (int adjacent = r - 1; adjacent <= r + 1; adjacent += 2) {
+                if (adjacent < 0 || adjacent >= this.numRows) {
+                    continue;
+                }
+                boolean inRun = false;
+                for (int i = left; i <= right; i++) {
+                    boolean matches = this.getBackgroundTile(i, adjacent) == target;
+                    if (matches && !inRun) {
+                        if (size + 2 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[size++] = i;
+                        stack[size++] = adjacent;
+                    }
+                    inRun = matches;
+                }
+            }
+        }
+        this.fireTilesChanged(changes);
+    }
+
+    /**
+     * Sets the background of the first count cells given to their tiles,
+     * in order, skipping cells outside the world. Listeners are told about
+     * all changed tiles in one call.
+     */
+    void putTiles(int[] cols, int[] rows, short[] tiles, int count) {
+        TileChanges changes = this.tileChanges.get();
+        for (int i = 0; i < count; i++) {
+            if (this.withinBounds(cols[i], rows[i])) {
+                this.putTile(cols[i], rows[i], tiles[i], changes);
+            }
+        }
+        this.fireTilesChanged(changes);
+    }
+
+    /**
+     * Sets the background of the tiles on a straight line between two
+     * tiles, both included. The line is clipped to the world first, so
+     * ends far outside it cost no more than the tiles painted. Listeners
+     * are told about all changed tiles in one call.
+     */
+    public void paintLine(int fromCol, int fromRow, int toCol, int toRow, short tile) {
+        int[] line = {fromCol, fromRow, toCol, toRow};
+        if (!this.clipLine(line)) {
+            return;
+        }
+
+        // Bresenham's line algorithm; both ends are now inside the world, and so is every step
+        long dx = Math.abs((long) line[2] - line[0]);
+        long dy = -Math.abs((long) line[3] - line[1]);
+        int stepCol = line[0] < line[2] ? 1 : -1;
+        int stepRow = line[1] < line[3] ? 1 : -1;
+        long error = dx + dy;
+        TileChanges changes = this.tileChanges.get();
+        int c = line[0];
+        int r = line[1];
+        while (true) {
+            this.putTile(c, r, tile, changes);
+            if (c == line[2] && r == line[3]) {
+                break;
+            }
+            long doubled = 2 * error;
+            if (doubled >= dy) {
+                error += dy;
+                c += stepCol;
+            }
+            if (doubled <= dx) {
+                error += dx;
+                r += stepRow;
+            }
+        }
+        this.fireTilesChanged(changes);
+    }
+
+    public short getBackgroundTile(Point pos) {
+        return this.getBackgroundTile(pos.getX(), pos.getY());
+    }
+
+    public short getBackgroundTile(int col, int row) {
+        Chunk chunk = this.getChunk(col, row);
+        return chunk == null ? TilePalette.DEFAULT_TILE
+                : chunk.getTile(Chunk.cellIndex(col, row));
+    }
+
+    public Background getBackgroundCell(Point pos) {
+        return this.palette.get(this.getBackgroundTile(pos));
     }
-}
 
+    public Background getBackgroundCell(int col, int row) {
+        return this.palette.get(this.getBackgroundTile(col, row));
+    }
+
+    public int getChunkRows() {
+        return chunkRows;
+    }
 
+    public int getChunkCols() {
+        return chunkCols;
+    }
 
+    /**
+     * Returns the palette indices of a chunk in row major order, or null
+     * when the whole chunk is the default background. The array must not
+     * be modified.
+     */
+    public short[] getChunkTiles(int chunkCol, int chunkRow) {
+        Chunk chunk = this.chunks[chunkRow * this.chunkCols + chunkCol];
+        return chunk == null ? null : chunk.getTiles();
+    }
 
+    /**
+     * Replaces the background of a whole chunk. The array must hold
+     * Chunk.AREA palette indices and is owned by the world afterwards.
+     */
+    public void setChunkTiles(int chunkCol, int chunkRow, short[] tiles) {
+        int index = chunkRow * this.chunkCols + chunkCol;
+        if (tiles == null && this.chunks[index] == null) {
+            return;
+        }
+        Chunk chunk = this.getWritableChunk(chunkCol << Chunk.SHIFT, chunkRow << Chunk.SHIFT);
+        chunk.setTiles(tiles);
+        if (chunk.isEmpty()) {
+            this.chunks[index] = null;
+        }
+    }
+
+    /**
+     * Returns the occupants of a chunk in row major order, or null when the
+     * chunk holds no entities. The array must not be modified.
+     */
+    public Entity[] getChunkOccupancy(int chunkCol, int chunkRow) {
+        Chunk chunk = this.chunks[chunkRow * this.chunkCols + chunkCol];
+        return chunk == null ? null : chunk.getOccupancy();
+    }
+
+    private boolean clipLine(int[] line) {
+        // Liang-Barsky clipping of {fromCol, fromRow, toCol, toRow} to the
+        // tile centres of the world. An end outside it moves to the nearest
+        // tile on the line; false means the line misses the world.
+        if (this.withinBounds(line[0], line[1]) && this.withinBounds(line[2], line[3])) {
+            return true;
+        }
+        if (this.numCols == 0 || this.numRows == 0) {
+            return false;
+        }
+        double dx = (double) line[2] - line[0];
+        double dy = (double) line[3] - line[1];
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {line[0] + 0.5, this.numCols - 0.5 - line[0], line[1] + 0.5, this.numRows - 0.5 - line[1]};
+        double enter = 0;
+        double exit = 1;
+        for (int i = 0; i < p.length; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            }
+            else if (p[i] < 0) {
+                enter = Math.max(enter, q[i] / p[i]);
+            }
+            else {
+                exit = Math.min(exit, q[i] / p[i]);
+            }
+        }
+        if (enter > exit) {
+            return false;
+        }
+
+        int fromCol = line[0];
+        int fromRow = line[1];
+        line[0] = this.clampCol(fromCol + enter * dx);
+        line[1] = this.clampRow(fromRow + enter * dy);
+        line[2] = this.clampCol(fromCol + exit * dx);
+        line[3] = this.clampRow(fromRow + exit * dy);
+        return true;
+    }
+
+    private int clampCol(double col) {
+        return (int) Math.max(0, Math.min(Math.round(col), this.numCols - 1));
+    }
+
+    private int clampRow(double row) {
+        return (int) Math.max(0, Math.min(Math.round(row), this.numRows - 1));
+    }
+
+    private void putTile(int col, int row, short tile, TileChanges changes) {
+        // Bulk edits collect their changes and report them together afterwards
+        short previous = this.getBackgroundTile(col, row);
+        if (previous != tile) {
+            Chunk chunk = this.getWritableChunk(col, row);
+            chunk.setTile(Chunk.cellIndex(col, row), tile);
+            this.releaseIfEmpty(col, row, chunk);
+            changes.add(col, row, previous, tile);
+        }
+    }
+
+    private void autotile(TileChanges changes) {
+        // Only the changed tiles and their edge neighbours can need another variant.
+        // The variants this adds are path tiles as before, so they need no further pass.
+        int changed = changes.size();
+        for (int i = 0; i < changed; i++) {
+            int col = changes.getCol(i);
+            int row = changes.getRow(i);
+            this.retile(col, row, changes);
+            this.retile(col, row - 1, changes);
+            this.retile(col + 1, row, changes);
+            this.retile(col, row + 1, changes);
+            this.retile(col - 1, row, changes);
+        }
+    }
+
+    private void retile(int col, int row, TileChanges changes) {
+        if (this.withinBounds(col, row)) {
+            short tile = this.getBackgroundTile(col, row);
+            this.putTile(col, row, this.autotiler.resolve(this, col, row, tile), changes);
+        }
+    }
+
+    private void fireTilesChanged(TileChanges changes) {
+        if (this.autotiler != null) {
+            this.autotile(changes);
+        }
+        if (changes.size() > 0) {
+            for (WorldEditListener listener : this.editListeners) {
+                listener.tilesChanged(changes);
+            }
+        }
+        changes.clear();
+    }
+
+    private Chunk getChunk(int col, int row) {
+        return this.chunks[(row >> Chunk.SHIFT) * this.chunkCols
+                + (col >> Chunk.SHIFT)];
+    }
+
+    private Chunk getWritableChunk(int col, int row) {
+        int index = (row >> Chunk.SHIFT) * this.chunkCols + (col >> Chunk.SHIFT);
+        Chunk chunk = this.chunks[index];
+        if (chunk == null) {
+            chunk = new Chunk(this.epoch);
+            this.chunks[index] = chunk;
+        }
+        else if (chunk.getEpoch() != this.epoch) {
+            // Shared with a copy of this world, so write to a private copy
+            chunk = chunk.copy(this.epoch);
+            this.chunks[index] = chunk;
+        }
+        return chunk;
+    }
+
+    private void releaseIfEmpty(int col, int row, Chunk chunk) {
+        // A chunk that only holds default tiles is dropped again
+        if (chunk.isEmpty()) {
+            this.chunks[(row >> Chunk.SHIFT) * this.chunkCols
+                    + (col >> Chunk.SHIFT)] = null;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves worlds on a background thread. Each save writes a copy of the
+ * world taken when it was requested, so the world can keep being edited
+ * while the file is written. Saves run one at a time in request order.
+ */
+public final class WorldSaver
+{
+    private final ExecutorService executor;
+    private final AtomicInteger pending;
+    private final AtomicInteger completed;
+    private final AtomicInteger failed;
+    private volatile double progress;
+    private volatile long lastSaveNanos;
+
+    public WorldSaver() {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "world-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new AtomicInteger();
+        this.completed = new AtomicInteger();
+        this.failed = new AtomicInteger();
+    }
+
+    /**
+     * Queues a save of the current state of world to target. onSaved runs
+     * on the save thread once the file is in place.
+     */
+    public Future<?> save(WorldModel world, Path target, Runnable onSaved) {
+        WorldModel snapshot = world.copy();
+        this.pending.incrementAndGet();
+        return this.executor.submit(() -> {
+            try {
+                this.progress = 0;
+                long start = System.nanoTime();
+                WorldWriter.save(snapshot, target, fraction -> this.progress = fraction);
+                this.lastSaveNanos = System.nanoTime() - start;
+                onSaved.run();
+                this.completed.incrementAndGet();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                this.failed.incrementAndGet();
+            }
+            finally {
+                this.pending.decrementAndGet();
+            }
+        });
+    }
+
+    public boolean isSaving() {
+        return this.pending.get() > 0;
+    }
+
+    /**
+     * The fraction of the current save that has been written.
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    /**
+     * How long writing the most recently completed save took.
+     */
+    public long getLastSaveNanos() {
+        return lastSaveNanos;
+    }
+
+    /**
+     * Returns the number of saves that finished since the last call.
+     */
+    public int pollCompleted() {
+        return this.completed.getAndSet(0);
+    }
+
+    /**
+     * Returns the number of saves that failed since the last call.
+     */
+    public int pollFailed() {
+        return this.failed.getAndSet(0);
+    }
+
+    /**
+     * Blocks until every queued save has finished.
+     */
+    public void awaitIdle() {
+        try {
+            this.executor.submit(() -> { }).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
@@ -1,9 +1,22 @@
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PImage;
 
-import java.util.Optional;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
-public final class WorldView
+/**
+ * Draws the visible part of the world. Background tiles and the entities
+ * on them are composed into an offscreen buffer, and only tiles that the
+ * world reports as changed are repainted, so an idle frame is one blit.
+ *
+ * Zoomed out, each zoom level halves the size tiles are drawn at, and the
+ * buffer is composed from ChunkMipmaps images of whole chunks instead of
+ * from tiles. The screen then holds the same number of pixels and about
+ * the same number of chunk images at any level, however many tiles they
+ * show.
+ */
+public final class WorldView implements WorldEditListener
 {
     private final PApplet screen;
     private final WorldModel world;
@@ -11,6 +24,18 @@ public final class WorldView
     private final int tileHeight;
     private final Viewport viewport;
 
+    private PGraphics cache;
+    private final boolean[] dirty;
+    private int dirtyCount;
+    private int tilesDrawn;
+    private int entitiesDrawn;
+    private final Consumer<Entity> drawEntity = this::drawEntityIfDirty;
+
+    private final int maxZoom;
+    private int zoom;
+    private boolean zoomDirty;
+    private ChunkMipmaps mipmaps;
+
     public WorldView(
             int numRows,
             int numCols,
@@ -24,47 +49,272 @@ public final class WorldView
         this.tileWidth = tileWidth;
         this.tileHeight = tileHeight;
         this.viewport = new Viewport(numRows, numCols);
+        this.dirty = new boolean[numRows * numCols];
+        this.maxZoom = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.min(tileWidth, tileHeight)));
+        this.invalidateAll();
+        world.addEditListener(this);
     }
 
+    /**
+     * Scrolls by whole screen tiles, which are 2^zoom world tiles across
+     * when zoomed out.
+     */
     public void shiftView(int colDelta, int rowDelta) {
-        int newCol = Util.clamp(this.viewport.getCol() + colDelta, 0,
-                this.world.getNumCols() - this.viewport.getNumCols());
-        int newRow = Util.clamp(this.viewport.getRow() + rowDelta, 0,
-                this.world.getNumRows() - this.viewport.getNumRows());
+        this.moveView(this.viewport.getCol() + (colDelta << this.zoom),
+                this.viewport.getRow() + (rowDelta << this.zoom));
+    }
+
+    /**
+     * Sets how far the view is zoomed out, from 0 for full size tiles to
+     * getMaxZoom() for one pixel per tile, keeping the centre of the view
+     * in place.
+     */
+    public void setZoom(int zoom) {
+        int newZoom = Util.clamp(zoom, 0, this.maxZoom);
+        if (newZoom == this.zoom) {
+            return;
+        }
+        if (newZoom > 0 && this.mipmaps == null) {
+            this.mipmaps = new ChunkMipmaps(this.world, this.tileWidth, this.tileHeight);
+        }
+
+        int centerCol = this.viewport.getCol() + (this.viewport.getNumCols() << this.zoom) / 2;
+        int centerRow = this.viewport.getRow() + (this.viewport.getNumRows() << this.zoom) / 2;
+        this.zoom = newZoom;
+        this.moveView(centerCol - (this.viewport.getNumCols() << newZoom) / 2,
+                centerRow - (this.viewport.getNumRows() << newZoom) / 2);
+        this.invalidateAll();
+    }
+
+    /**
+     * Scrolls so that the tile at (col, row) is as near the centre of the
+     * view as the edges of the world allow.
+     */
+    public void centerOn(int col, int row) {
+        this.moveView(col - (this.viewport.getNumCols() << this.zoom) / 2,
+                row - (this.viewport.getNumRows() << this.zoom) / 2);
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    /**
+     * The world column under screen x, at the current zoom.
+     */
+    public int screenToWorldCol(int x) {
+        return this.viewport.getCol() + (x << this.zoom) / this.tileWidth;
+    }
+
+    /**
+     * The world row under screen y, at the current zoom.
+     */
+    public int screenToWorldRow(int y) {
+        return this.viewport.getRow() + (y << this.zoom) / this.tileHeight;
+    }
+
+    /**
+     * Marks every visible tile for repainting, for changes the world does
+     * not report such as loading whole chunks.
+     */
+    public void invalidateAll() {
+        Arrays.fill(this.dirty, true);
+        this.dirtyCount = this.dirty.length;
+        this.zoomDirty = true;
+    }
+
+    @Override
+    public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+        this.invalidateEdit(col, row, col, row);
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes) {
+        this.invalidateEdit(changes.getMinCol(), changes.getMinRow(),
+                changes.getMaxCol(), changes.getMaxRow());
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        Point pos = entity.getPosition();
+        this.invalidateEdit(pos.getX(), pos.getY(), pos.getX(), pos.getY());
+    }
+
+    @Override
+    public void entityRemoved(Entity entity, int col, int row) {
+        this.invalidateEdit(col, row, col, row);
+    }
+
+    private void moveView(int col, int row) {
+        int newCol = Util.clamp(col, 0,
+                Math.max(0, this.world.getNumCols() - (this.viewport.getNumCols() << this.zoom)));
+        int newRow = Util.clamp(row, 0,
+                Math.max(0, this.world.getNumRows() - (this.viewport.getNumRows() << this.zoom)));
+
+        if (newCol != this.viewport.getCol() || newRow != this.viewport.getRow()) {
+            this.viewport.shift(newCol, newRow);
+            this.invalidateAll();
+        }
+    }
 
-        this.viewport.shift(newCol, newRow);
+    private void invalidateEdit(int minCol, int minRow, int maxCol, int maxRow) {
+        // Only the visible part of the changed area needs repainting
+        minCol = Math.max(minCol, this.viewport.getCol());
+        minRow = Math.max(minRow, this.viewport.getRow());
+        maxCol = Math.min(maxCol, this.viewport.getCol() + (this.viewport.getNumCols() << this.zoom) - 1);
+        maxRow = Math.min(maxRow, this.viewport.getRow() + (this.viewport.getNumRows() << this.zoom) - 1);
+        if (minCol > maxCol || minRow > maxRow) {
+            return;
+        }
+
+        if (this.zoom > 0) {
+            // The mipmaps track the cells themselves; the buffer is recomposed from them
+            this.zoomDirty = true;
+            return;
+        }
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                this.invalidate(col, row);
+            }
+        }
+    }
+
+    /**
+     * Marks the tile at (col, row) for repainting if it is visible, for
+     * changes such as an entity's animation frame that are not edits.
+     */
+    public void invalidate(int col, int row) {
+        int viewCol = this.viewport.worldToViewportCol(col);
+        int viewRow = this.viewport.worldToViewportRow(row);
+        if (viewCol >= 0 && viewCol < this.viewport.getNumCols()
+                && viewRow >= 0 && viewRow < this.viewport.getNumRows()) {
+            int index = viewRow * this.viewport.getNumCols() + viewCol;
+            if (!this.dirty[index]) {
+                this.dirty[index] = true;
+                this.dirtyCount++;
+            }
+        }
+    }
+
+    private void drawBackgroundTile(int col, int row) {
+        // Plain ints all the way down, so repainting a tile allocates nothing
+        int worldCol = this.viewport.viewportToWorldCol(col);
+        int worldRow = this.viewport.viewportToWorldRow(row);
+        int x = col * this.tileWidth;
+        int y = row * this.tileHeight;
+
+        // Clear first so nothing from the previous tile shows through transparent pixels
+        this.cache.rect(x, y, this.tileWidth, this.tileHeight);
+
+        if (this.world.withinBounds(worldCol, worldRow)) {
+            Background background = this.world.getBackgroundCell(worldCol, worldRow);
+            this.drawFrame(background.getImages(), background.getImageIndex(), x, y);
+        }
+    }
+
+    private void drawFrame(FrameList frames, int index, int x, int y) {
+        // Packed frames are drawn as regions of their atlas page
+        PImage page = frames.getPage(index);
+        PImage frame = frames.get(index);
+        if (page == null) {
+            this.cache.image(frame, x, y);
+        }
+        else {
+            int u = frames.getPageX(index);
+            int v = frames.getPageY(index);
+            this.cache.image(page, x, y, frame.width, frame.height,
+                    u, v, u + frame.width, v + frame.height);
+        }
+    }
+
+    private void drawEntityIfDirty(Entity entity) {
+        Point pos = entity.getPosition();
+        int col = this.viewport.worldToViewportCol(pos.getX());
+        int row = this.viewport.worldToViewportRow(pos.getY());
+        if (this.dirty[row * this.viewport.getNumCols() + col]) {
+            this.drawFrame(entity.getImages(), entity.getImageIndex(),
+                    col * this.tileWidth, row * this.tileHeight);
+            this.entitiesDrawn++;
+        }
     }
 
-    private void drawBackground() {
+    private void repaintDirtyTiles() {
+        this.cache.beginDraw();
+        this.cache.noStroke();
+        this.cache.fill(0);
         for (int row = 0; row < this.viewport.getNumRows(); row++) {
             for (int col = 0; col < this.viewport.getNumCols(); col++) {
-                Point worldPoint = this.viewport.viewportToWorld(col, row);
-                Optional<PImage> image =
-                        this.world.getBackgroundImage(worldPoint);
-                if (image.isPresent()) {
-                    this.screen.image(image.get(), col * this.tileWidth,
-                            row * this.tileHeight);
+                if (this.dirty[row * this.viewport.getNumCols() + col]) {
+                    this.drawBackgroundTile(col, row);
+                    this.tilesDrawn++;
                 }
             }
         }
-    }
 
-    private void drawEntities() {
-        for (Entity entity : this.world.getEntities()) {
-            Point pos = entity.getPosition();
+        // Entities come from the world's spatial index rather than a scan of every entity
+        this.world.forEachEntityIn(this.viewport.getCol(), this.viewport.getRow(),
+                this.viewport.getNumCols(), this.viewport.getNumRows(), this.drawEntity);
+        this.cache.endDraw();
+
+        Arrays.fill(this.dirty, false);
+        this.dirtyCount = 0;
+    }
 
-            if (this.viewport.contains(pos)) {
-                Point viewPoint = this.viewport.worldToViewport(pos.getX(), pos.getY());
-                this.screen.image(entity.getCurrentImage(),
-                        viewPoint.getX() * this.tileWidth,
-                        viewPoint.getY() * this.tileHeight);
+    private void drawChunks() {
+        // Whole chunk images at the zoom's level, so the work depends on the screen size alone
+        int firstCol = this.viewport.getCol();
+        int firstRow = this.viewport.getRow();
+        int endCol = Math.min(firstCol + (this.viewport.getNumCols() << this.zoom), this.world.getNumCols());
+        int endRow = Math.min(firstRow + (this.viewport.getNumRows() << this.zoom), this.world.getNumRows());
+        this.cache.beginDraw();
+        this.cache.background(0);
+        for (int chunkRow = firstRow >> Chunk.SHIFT; (chunkRow << Chunk.SHIFT) < endRow; chunkRow++) {
+            for (int chunkCol = firstCol >> Chunk.SHIFT; (chunkCol << Chunk.SHIFT) < endCol; chunkCol++) {
+                int x = (((chunkCol << Chunk.SHIFT) - firstCol) * this.tileWidth) >> this.zoom;
+                int y = (((chunkRow << Chunk.SHIFT) - firstRow) * this.tileHeight) >> this.zoom;
+                this.cache.image(this.mipmaps.getImage(chunkCol, chunkRow, this.zoom), x, y);
+                this.tilesDrawn++;
             }
         }
+        this.cache.endDraw();
+        this.zoomDirty = false;
     }
 
     public void drawViewport() {
-        this.drawBackground();
-        this.drawEntities();
+        if (this.cache == null) {
+            this.cache = this.screen.createGraphics(this.viewport.getNumCols() * this.tileWidth,
+                    this.viewport.getNumRows() * this.tileHeight);
+        }
+        this.tilesDrawn = 0;
+        this.entitiesDrawn = 0;
+        if (this.zoom > 0) {
+            if (this.zoomDirty) {
+                this.drawChunks();
+            }
+        }
+        else if (this.dirtyCount > 0) {
+            this.repaintDirtyTiles();
+        }
+        this.screen.image(this.cache, 0, 0);
+    }
+
+    /**
+     * The number of background tiles repainted by the last drawViewport,
+     * or of chunk images drawn when zoomed out.
+     */
+    public int getTilesDrawn() {
+        return tilesDrawn;
+    }
+
+    /**
+     * The number of entities repainted by the last drawViewport.
+     */
+    public int getEntitiesDrawn() {
+        return entitiesDrawn;
     }
 
     public Viewport getViewport() {
@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a WorldModel in the line based text format that Parser reads.
+ */
+public final class WorldWriter
+{
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Rows are encoded in bands of whole chunk rows holding about this many tiles
+    private static final int BAND_TILES = 1 << 16;
+    static final int BYTES_PER_TILE = 28;
+
+    /**
+     * Writes the world to a temporary file next to path and then moves it
+     * into place, so path always holds either the old or the new world.
+     * Files ending in BinaryWorldFile.EXTENSION are written in binary, and
+     * files ending in GZIP_EXTENSION as compressed text.
+     */
+    public static void save(WorldModel world, Path path) throws IOException {
+        save(world, path, progress -> { });
+    }
+
+    /**
+     * Like save, reporting the fraction of the world written so far to
+     * progress as it goes.
+     */
+    public static void save(WorldModel world, Path path, DoubleConsumer progress)
+            throws IOException
+    {
+        Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+        if (path.toString().endsWith(BinaryWorldFile.EXTENSION)) {
+            BinaryWorldFile.save(world, temp, progress);
+        }
+        else {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writeText(world, out, isCompressed(path), progress);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the world in the text format. Bands of rows are encoded on the
+     * common fork/join pool and written in order, a few bands ahead of the
+     * output, so the bytes are the same as from writeText(world, Writer).
+     * When compress is set every band is compressed as its own GZIP member,
+     * which GZIP readers, RecordReader included, read as one stream.
+     */
+    public static void writeText(
+            WorldModel world, OutputStream out, boolean compress, DoubleConsumer progress)
+            throws IOException
+    {
+        int numRows = world.getNumRows();
+        int chunkRowTiles = Chunk.SIZE * Math.max(world.getNumCols(), 1);
+        int bandRows = Chunk.SIZE * Math.max(1, BAND_TILES / chunkRowTiles);
+        int bands = (numRows + bandRows - 1) / bandRows;
+
+        byte[][] backgrounds = backgroundLines(world.getPalette());
+        writeHeader(out, world.getNumCols(), numRows, compress);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = 2 * pool.getParallelism();
+        Deque<Future<TextBuffer>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (int band = 0; band < bands; band++) {
+                while (next < bands && next < band + window) {
+                    int firstRow = next * bandRows;
+                    int endRow = Math.min(firstRow + bandRows, numRows);
+                    pending.add(pool.submit(
+                            () -> finish(encodeRows(world, backgrounds, firstRow, endRow), compress)));
+                    next++;
+                }
+                pending.remove().get().writeTo(out);
+                progress.accept(Math.min((band + 1) * bandRows, numRows) / (double) numRows);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while saving", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("could not encode world", e.getCause());
+        }
+        finally {
+            for (Future<TextBuffer> band : pending) {
+                band.cancel(false);
+            }
+        }
+    }
+
+    public static void writeText(WorldModel world, Writer out) throws IOException {
+        writeText(world, out, progress -> { });
+    }
+
+    public static void writeText(WorldModel world, Writer out, DoubleConsumer progress)
+            throws IOException
+    {
+
+        out.write("world " + world.getNumCols() + " " + world.getNumRows());
+        out.write("\n");
+
+        for (int i = 0; i < world.getNumRows(); i++) {
+            for (int j = 0; j < world.getNumCols(); j++) {
+                String bgLine;
+                String entityLine;
+
+                bgLine = world.getBackgroundCell(j, i).getStoreLine() + " " + j + " " + i;
+                Entity e = world.getOccupancyCell(j, i);
+
+                out.write(bgLine);
+                out.write("\n");
+
+                if (e != null) {
+                    entityLine = e.createStoreLine(j, i);
+                    out.write(entityLine);
+                    out.write("\n");
+                }
+            }
+            progress.accept((i + 1) / (double) world.getNumRows());
+        }
+    }
+
+    private static TextBuffer encodeRows(
+            WorldModel world, byte[][] backgrounds, int firstRow, int endRow)
+    {
+        // Reads the chunk arrays directly, a row of each chunk at a time
+        int numCols = world.getNumCols();
+        TextBuffer text = new TextBuffer((endRow - firstRow) * numCols * BYTES_PER_TILE);
+        for (int row = firstRow; row < endRow; row++) {
+            int chunkRow = row >> Chunk.SHIFT;
+            for (int chunkCol = 0; chunkCol < world.getChunkCols(); chunkCol++) {
+                short[] tiles = world.getChunkTiles(chunkCol, chunkRow);
+                Entity[] occupancy = world.getChunkOccupancy(chunkCol, chunkRow);
+                int firstCol = chunkCol << Chunk.SHIFT;
+                int endCol = Math.min(firstCol + Chunk.SIZE, numCols);
+                for (int col = firstCol; col < endCol; col++) {
+                    int cell = Chunk.cellIndex(col, row);
+                    Entity occupant = occupancy == null ? null : occupancy[cell];
+                    appendTile(text, backgrounds[tiles == null ? TilePalette.DEFAULT_TILE : tiles[cell]],
+                            occupant == null ? null : occupant.createStoreLine(col, row), col, row);
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Whether text saved to path is GZIP compressed.
+     */
+    static boolean isCompressed(Path path) {
+        return path.toString().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * The start of the background line of each tile in palette, by
+     * palette index, for appendTile.
+     */
+    static byte[][] backgroundLines(TilePalette palette) {
+        byte[][] backgrounds = new byte[palette.size()][];
+        for (int i = 0; i < backgrounds.length; i++) {
+            backgrounds[i] = (palette.get(i).getStoreLine() + " ").getBytes(StandardCharsets.UTF_8);
+        }
+        return backgrounds;
+    }
+
+    /**
+     * Writes the world line that starts the text format.
+     */
+    static void writeHeader(OutputStream out, int numCols, int numRows, boolean compress)
+            throws IOException
+    {
+        TextBuffer header = new TextBuffer(32);
+        header.append(("world " + numCols + " " + numRows + "\n").getBytes(StandardCharsets.UTF_8));
+        finish(header, compress).writeTo(out);
+    }
+
+    /**
+     * Encodes the lines for the tile at (col, row): its background, and
+     * the store line of its occupant when that is not null.
+     */
+    static void appendTile(TextBuffer text, byte[] background, String occupant, int col, int row) {
+        text.append(background);
+        text.append(col);
+        text.write(' ');
+        text.append(row);
+        text.write('\n');
+        if (occupant != null) {
+            text.append(occupant.getBytes(StandardCharsets.UTF_8));
+            text.write('\n');
+        }
+    }
+
+    /**
+     * Returns text, or text as one GZIP member when compress is set.
+     */
+    static TextBuffer finish(TextBuffer text, boolean compress) throws IOException {
+        if (!compress) {
+            return text;
+        }
+        TextBuffer compressed = new TextBuffer(text.size() / 4);
+        // The fastest level still shrinks a save file several times over
+        try (OutputStream gzip = new GZIPOutputStream(compressed, BUFFER_SIZE) {
+            {
+                this.def.setLevel(Deflater.BEST_SPEED);
+            }
+        }) {
+            text.writeTo(gzip);
+        }
+        return compressed;
+    }
+}
@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnimatorTest
+{
+    private static final int VIEW_COLS = 10;
+    private static final int VIEW_ROWS = 8;
+    private static final int MARGIN = 2;
+    private static final int PERIOD = 100;
+
+    private WorldModel world;
+    private WorldView view;
+    private Animator animator;
+
+    @BeforeEach
+    void createAnimator() {
+        this.world = TestWorlds.world(200, 200);
+        this.view = new WorldView(VIEW_ROWS, VIEW_COLS,
+                TestWorlds.screen(VIEW_COLS * TestWorlds.TILE_SIZE, VIEW_ROWS * TestWorlds.TILE_SIZE),
+                this.world, TestWorlds.TILE_SIZE, TestWorlds.TILE_SIZE);
+        this.animator = new Animator(this.world, this.view, 1.0, MARGIN);
+    }
+
+    private Entity water(int col, int row) {
+        Entity entity = Factory.createObstacle("obstacle_" + col + "_" + row, new Point(col, row),
+                List.of(TestWorlds.image(0x0000ff), TestWorlds.image(0x0000aa), TestWorlds.image(0x000055)),
+                PERIOD);
+        this.world.addEntity(entity);
+        return entity;
+    }
+
+    @Test
+    void onlyEntitiesNearTheViewportAreScheduled() {
+        this.water(5, 5);
+        this.water(VIEW_COLS + MARGIN - 1, 0);
+        this.water(VIEW_COLS + MARGIN, 0);
+        this.water(150, 150);
+        this.world.addEntity(TestWorlds.house(6, 6));
+
+        this.animator.update(0);
+
+        assertEquals(2, this.animator.getScheduled());
+    }
+
+    @Test
+    void framesStepOncePerPeriod() {
+        Entity water = this.water(3, 3);
+        this.animator.update(0);
+
+        this.animator.update(PERIOD - 10);
+        assertEquals(0, water.getImageIndex());
+        this.animator.update(PERIOD);
+        assertEquals(1, water.getImageIndex());
+        // Overdue frames are stepped once, and the next is due a period after that
+        this.animator.update(2 * PERIOD + 50);
+        assertEquals(2, water.getImageIndex());
+        this.animator.update(3 * PERIOD);
+        assertEquals(2, water.getImageIndex());
+        this.animator.update(3 * PERIOD + 50);
+        assertEquals(0, water.getImageIndex());
+    }
+
+    @Test
+    void aLongPauseStepsEachEntityOnce() {
+        Entity water = this.water(3, 3);
+        this.animator.update(0);
+
+        this.animator.update(1000 * PERIOD);
+
+        assertEquals(1, water.getImageIndex());
+        assertEquals(1, this.animator.getScheduled());
+    }
+
+    @Test
+    void entitiesAreDroppedOnceScrolledAwayAndPickedUpWhenBack() {
+        Entity water = this.water(3, 3);
+        this.animator.update(0);
+
+        // The update that scrolls an entity away still steps it, and it is dropped when next due
+        this.view.shiftView(20, 0);
+        this.animator.update(PERIOD);
+        assertEquals(1, water.getImageIndex());
+        this.animator.update(2 * PERIOD);
+        assertEquals(0, this.animator.getScheduled());
+        assertEquals(1, water.getImageIndex());
+
+        this.view.shiftView(-20, 0);
+        this.animator.update(3 * PERIOD);
+        assertEquals(1, this.animator.getScheduled());
+        assertEquals(1, water.getImageIndex());
+        this.animator.update(4 * PERIOD);
+        assertEquals(2, water.getImageIndex());
+    }
+
+    @Test
+    void removedEntitiesAreUnscheduledAtOnce() {
+        Entity first = this.water(3, 3);
+        Entity second = this.water(4, 3);
+        this.animator.update(0);
+
+        this.world.removeEntity(first);
+
+        assertEquals(1, this.animator.getScheduled());
+        this.animator.update(PERIOD);
+        assertEquals(0, first.getImageIndex());
+        assertEquals(1, second.getImageIndex());
+    }
+}
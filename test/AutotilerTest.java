@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AutotilerTest
+{
+    private WorldModel world;
+    private short dirt;
+
+    @BeforeEach
+    void createWorld() {
+        this.world = TestWorlds.world(10, 10);
+        ImageStore imageStore = TestWorlds.imageStore();
+        this.world.setAutotiler(new Autotiler(this.world.getPalette(), imageStore));
+        this.dirt = this.world.getPalette().intern(Autotiler.PATH_KEY, imageStore.getImageList(Autotiler.PATH_KEY));
+    }
+
+    private String keyAt(int col, int row) {
+        return this.world.getPalette().get(this.world.getBackgroundTile(col, row)).getId();
+    }
+
+    @Test
+    void maskTablePicksTheStripsThatMeetTheNeighbours() {
+        assertEquals("dirt", Autotiler.variantKey(0));
+        assertEquals("dirt_vert_right", Autotiler.variantKey(Autotiler.NORTH | Autotiler.SOUTH));
+        assertEquals("dirt_horiz", Autotiler.variantKey(Autotiler.EAST | Autotiler.WEST));
+        assertEquals("dirt_vert_left_bot", Autotiler.variantKey(Autotiler.NORTH | Autotiler.EAST));
+        assertEquals("dirt_bot_left_corner", Autotiler.variantKey(Autotiler.SOUTH | Autotiler.WEST));
+        assertEquals("dirt_vert_left_bot",
+                Autotiler.variantKey(Autotiler.NORTH | Autotiler.EAST | Autotiler.SOUTH | Autotiler.WEST));
+    }
+
+    @Test
+    void everyVariantIsPickedBySomeMask() {
+        Set<String> keys = new HashSet<>();
+        for (int mask = 0; mask < 16; mask++) {
+            keys.add(Autotiler.variantKey(mask));
+        }
+
+        assertEquals(Set.of("dirt", "dirt_vert_right", "dirt_horiz", "dirt_vert_left_bot",
+                "dirt_bot_left_corner"), keys);
+    }
+
+    @Test
+    void paintedPathsJoinUp() {
+        this.world.paintLine(2, 5, 6, 5, this.dirt);
+        this.world.paintLine(6, 1, 6, 4, this.dirt);
+
+        assertEquals("dirt_horiz", this.keyAt(4, 5));
+        assertEquals("dirt_vert_right", this.keyAt(6, 3));
+        // The end of the horizontal run turns north, so its left strip meets the bottom strip to the west
+        assertEquals("dirt_vert_right", this.keyAt(6, 5));
+        assertEquals("dirt_vert_right", this.keyAt(6, 1));
+        assertEquals("dirt_horiz", this.keyAt(2, 5));
+    }
+
+    @Test
+    void bridgesConnectButAreNotReplaced() {
+        short bridge = TestWorlds.tile(this.world, "bridge", 0x996633);
+        this.world.setBackgroundTile(5, 5, bridge);
+
+        this.world.setBackgroundTile(4, 5, this.dirt);
+
+        assertEquals("bridge", this.keyAt(5, 5));
+        assertEquals("dirt_horiz", this.keyAt(4, 5));
+    }
+
+    @Test
+    void handPlacedPathTilesAreKeptNextToNewPaths() {
+        this.world.setAutotiler(null);
+        this.world.setBackgroundTile(3, 3, TestWorlds.tile(this.world, "dirt_vert_left", 0x884400));
+        this.world.setBackgroundTile(7, 3, TestWorlds.tile(this.world, "dirt_bot_right_up", 0x884400));
+        this.world.setAutotiler(new Autotiler(this.world.getPalette(), TestWorlds.imageStore()));
+
+        this.world.setBackgroundTile(3, 4, this.dirt);
+        this.world.setBackgroundTile(6, 3, this.dirt);
+
+        assertEquals("dirt_vert_left", this.keyAt(3, 3));
+        assertEquals("dirt_bot_right_up", this.keyAt(7, 3));
+        // They still join up with the paths painted next to them
+        assertEquals("dirt_vert_right", this.keyAt(3, 4));
+        assertEquals("dirt_horiz", this.keyAt(6, 3));
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryWorldFileTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    void savedWorldLoadsBackTheSame() throws IOException {
+        ImageStore imageStore = TestWorlds.imageStore();
+        WorldModel world = new WorldModel(70, 90, imageStore.createDefaultBackground());
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+        world.fillRect(0, 0, Chunk.SIZE, Chunk.SIZE, grass);
+        world.fillRect(40, 10, 30, 50, dirt);
+        world.setBackgroundTile(89, 69, grass);
+        world.addEntity(Factory.createHouse("house_a", new Point(3, 4), List.of(TestWorlds.image(0))));
+        world.addEntity(Factory.createObstacle("obstacle_b", new Point(50, 60), List.of(TestWorlds.image(0)), 1100));
+        world.addEntity(Factory.createTree("tree_c", new Point(89, 0), List.of(TestWorlds.image(0)), 700, 1050, 3));
+
+        Path path = this.dir.resolve("world" + BinaryWorldFile.EXTENSION);
+        BinaryWorldFile.save(world, path);
+        assertTrue(BinaryWorldFile.isBinary(path));
+
+        // Interning another key first gives the loading world a different palette order
+        WorldModel loaded = new WorldModel(0, 0, imageStore.createDefaultBackground());
+        TestWorlds.tile(loaded, "water", 0x0000ff);
+        BinaryWorldFile.load(path, loaded, imageStore);
+
+        assertEquals(90, loaded.getNumCols());
+        assertEquals(70, loaded.getNumRows());
+        for (int row = 0; row < 70; row++) {
+            for (int col = 0; col < 90; col++) {
+                assertEquals(world.getBackgroundCell(col, row).getId(), loaded.getBackgroundCell(col, row).getId(),
+                        "tile " + col + ", " + row);
+            }
+        }
+        assertNull(loaded.getChunkTiles(0, 1));
+
+        assertEquals(3, loaded.getEntities().size());
+        assertEquals("house_a", loaded.getOccupancyCell(3, 4).getId());
+        Obstacle obstacle = (Obstacle) loaded.getOccupancyCell(50, 60);
+        assertEquals(1100, obstacle.getAnimationPeriod());
+        Tree tree = (Tree) loaded.getOccupancyCell(89, 0);
+        assertEquals(700, tree.getAnimationPeriod());
+        assertEquals(1050, tree.getActionPeriod());
+        assertEquals(3, tree.getHealth());
+    }
+
+    @Test
+    void idsUpToTheLimitRoundTrip() throws IOException {
+        ImageStore imageStore = TestWorlds.imageStore();
+        WorldModel world = new WorldModel(4, 4, imageStore.createDefaultBackground());
+        String id = "h".repeat(BinaryWorldFile.MAX_STRING_BYTES);
+        world.addEntity(Factory.createHouse(id, new Point(1, 1), List.of(TestWorlds.image(0))));
+        world.addEntity(Factory.createHouse("house_2_2", new Point(2, 2), List.of(TestWorlds.image(0))));
+
+        Path path = this.dir.resolve("long" + BinaryWorldFile.EXTENSION);
+        BinaryWorldFile.save(world, path);
+        WorldModel loaded = new WorldModel(0, 0, imageStore.createDefaultBackground());
+        BinaryWorldFile.load(path, loaded, imageStore);
+
+        assertEquals(id, loaded.getOccupancyCell(1, 1).getId());
+        assertEquals("house_2_2", loaded.getOccupancyCell(2, 2).getId());
+    }
+
+    @Test
+    void idsPastTheLimitAreRejected() {
+        WorldModel world = TestWorlds.world(4, 4);
+        String id = "h".repeat(BinaryWorldFile.MAX_STRING_BYTES + 1);
+        world.addEntity(Factory.createHouse(id, new Point(1, 1), List.of(TestWorlds.image(0))));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryWorldFile.save(world, this.dir.resolve("bad" + BinaryWorldFile.EXTENSION)));
+    }
+
+    @Test
+    void textFilesAreNotTakenForBinary() throws IOException {
+        Path path = this.dir.resolve("world.sav");
+        Files.write(path, List.of("world 1 1", "background grass 0 0"));
+
+        assertFalse(BinaryWorldFile.isBinary(path));
+    }
+}
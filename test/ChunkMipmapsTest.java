@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ChunkMipmapsTest
+{
+    // Not a whole number of chunks, so the last ones run past the edge of the world
+    private static final int WORLD_SIZE = Chunk.SIZE + 8;
+
+    private WorldModel world;
+    private ChunkMipmaps mipmaps;
+    private short grass;
+
+    @BeforeEach
+    void createMipmaps() {
+        this.world = TestWorlds.world(WORLD_SIZE, WORLD_SIZE);
+        this.grass = TestWorlds.tile(this.world, "grass", 0x00ff00);
+        this.mipmaps = new ChunkMipmaps(this.world, TestWorlds.TILE_SIZE, TestWorlds.TILE_SIZE);
+    }
+
+    private short smallTile(int rgb) {
+        PImage image = new PImage(TestWorlds.TILE_SIZE / 4, TestWorlds.TILE_SIZE / 4, PApplet.RGB);
+        image.loadPixels();
+        Arrays.fill(image.pixels, 0xff000000 | rgb);
+        image.updatePixels();
+        return this.world.getPalette().intern("small", List.of(image));
+    }
+
+    private void buildAll(ChunkMipmaps mipmaps) {
+        for (int chunkRow = 0; chunkRow < this.world.getChunkRows(); chunkRow++) {
+            for (int chunkCol = 0; chunkCol < this.world.getChunkCols(); chunkCol++) {
+                for (int level = 1; level <= mipmaps.getLevels(); level++) {
+                    mipmaps.getImage(chunkCol, chunkRow, level);
+                }
+            }
+        }
+    }
+
+    @Test
+    void incrementalRepaintsMatchAFreshBuild() {
+        this.world.setBackgroundTile(2, 2, this.grass);
+        Entity house = TestWorlds.house(3, 3);
+        this.world.addEntity(house);
+        this.buildAll(this.mipmaps);
+
+        this.world.fillRect(Chunk.SIZE - 3, Chunk.SIZE - 3, 6, 6, this.grass);
+        this.world.setBackgroundTile(2, 2, this.smallTile(0xff0000));
+        this.world.removeEntity(house);
+        this.world.addEntity(TestWorlds.house(Chunk.SIZE + 1, 4));
+
+        ChunkMipmaps fresh = new ChunkMipmaps(this.world, TestWorlds.TILE_SIZE, TestWorlds.TILE_SIZE);
+        for (int chunkRow = 0; chunkRow < this.world.getChunkRows(); chunkRow++) {
+            for (int chunkCol = 0; chunkCol < this.world.getChunkCols(); chunkCol++) {
+                for (int level = 1; level <= this.mipmaps.getLevels(); level++) {
+                    assertArrayEquals(fresh.getImage(chunkCol, chunkRow, level).pixels,
+                            this.mipmaps.getImage(chunkCol, chunkRow, level).pixels,
+                            "chunk " + chunkCol + "," + chunkRow + " level " + level);
+                }
+            }
+        }
+    }
+
+    @Test
+    void aSmallerTileLeavesTheRestOfItsCellTransparent() {
+        this.world.setBackgroundTile(0, 0, this.grass);
+        PImage image = this.mipmaps.getImage(0, 0, 1);
+        assertEquals(0xff00ff00, image.pixels[0]);
+
+        this.world.setBackgroundTile(0, 0, this.smallTile(0xff0000));
+        image = this.mipmaps.getImage(0, 0, 1);
+
+        int cellSize = TestWorlds.TILE_SIZE >> 1;
+        assertEquals(0xffff0000, image.pixels[0]);
+        assertEquals(0, image.pixels[(cellSize - 1) * image.width + cellSize - 1]);
+        assertEquals(0, image.pixels[cellSize / 2]);
+    }
+
+    @Test
+    void emptyChunksShareOneImagePerLevel() {
+        PImage first = this.mipmaps.getImage(0, 0, 2);
+
+        assertSame(first, this.mipmaps.getImage(1, 1, 2));
+        assertEquals((Chunk.SIZE * TestWorlds.TILE_SIZE) >> 2, first.width);
+    }
+}
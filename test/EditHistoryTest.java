@@ -0,0 +1,179 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditHistoryTest
+{
+    @Test
+    void oldestEditsAreForgottenOnceTheRingWrapsAround() {
+        WorldModel world = TestWorlds.world(16, 16);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        // Four slots hold three edits, the fourth marking where the ring ends
+        EditHistory history = new EditHistory(world, 4);
+        for (int col = 0; col < 10; col++) {
+            world.setBackgroundTile(col, 0, grass);
+        }
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        for (int col = 0; col < 10; col++) {
+            assertEquals(col < 7 ? grass : TilePalette.DEFAULT_TILE, world.getBackgroundTile(col, 0));
+        }
+
+        assertTrue(history.redo());
+        assertTrue(history.redo());
+        assertTrue(history.redo());
+        assertFalse(history.redo());
+        assertEquals(grass, world.getBackgroundTile(9, 0));
+    }
+
+    @Test
+    void theOldestStepIsDroppedWhole() {
+        WorldModel world = TestWorlds.world(16, 16);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+        EditHistory history = new EditHistory(world, 6);
+        world.fillRect(0, 0, 3, 1, grass);
+        world.setBackgroundTile(0, 1, dirt);
+        world.setBackgroundTile(1, 1, dirt);
+        world.setBackgroundTile(2, 1, dirt);
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        assertEquals(grass, world.getBackgroundTile(2, 0));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(0, 1));
+    }
+
+    @Test
+    void aStepLargerThanTheHistoryIsNotKept() {
+        WorldModel world = TestWorlds.world(16, 16);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        EditHistory history = new EditHistory(world, 4);
+        world.setBackgroundTile(5, 5, grass);
+
+        world.fillRect(0, 0, 5, 1, grass);
+
+        assertFalse(history.canUndo());
+        assertEquals(grass, world.getBackgroundTile(4, 0));
+        world.setBackgroundTile(6, 6, grass);
+        assertTrue(history.undo());
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(6, 6));
+    }
+
+    @Test
+    void groupedEditsUndoAndRedoAsOneStep() {
+        WorldModel world = TestWorlds.world(16, 16);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        EditHistory history = new EditHistory(world, EditHistory.DEFAULT_CAPACITY);
+        history.beginGroup();
+        world.setBackgroundTile(1, 1, grass);
+        world.addEntity(TestWorlds.house(2, 2));
+        history.endGroup();
+
+        assertTrue(history.undo());
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(1, 1));
+        assertFalse(world.isOccupied(2, 2));
+        assertFalse(history.canUndo());
+
+        assertTrue(history.redo());
+        assertEquals(grass, world.getBackgroundTile(1, 1));
+        assertTrue(world.isOccupied(2, 2));
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    void removedEntitiesComeBackWhereTheyWere() {
+        WorldModel world = TestWorlds.world(16, 16);
+        EditHistory history = new EditHistory(world, EditHistory.DEFAULT_CAPACITY);
+        Entity house = TestWorlds.house(3, 4);
+        world.addEntity(house);
+        world.removeEntity(house);
+
+        assertTrue(history.undo());
+        assertSame(house, world.getOccupancyCell(3, 4));
+        assertEquals(new Point(3, 4), house.getPosition());
+        assertTrue(history.undo());
+        assertFalse(world.isOccupied(3, 4));
+
+        assertTrue(history.redo());
+        assertSame(house, world.getOccupancyCell(3, 4));
+        assertTrue(history.redo());
+        assertFalse(world.isOccupied(3, 4));
+        assertTrue(world.getEntities().isEmpty());
+    }
+
+    @Test
+    void aNewEditDiscardsTheUndoneSteps() {
+        WorldModel world = TestWorlds.world(16, 16);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        EditHistory history = new EditHistory(world, EditHistory.DEFAULT_CAPACITY);
+        world.setBackgroundTile(1, 1, grass);
+        history.undo();
+
+        world.addEntity(TestWorlds.house(2, 2));
+
+        assertFalse(history.canRedo());
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(1, 1));
+    }
+
+    @Test
+    void aGroupedStepIsPutBackInOneBulkEdit() {
+        WorldModel world = TestWorlds.world(16, 16);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        EditHistory history = new EditHistory(world, EditHistory.DEFAULT_CAPACITY);
+        history.beginGroup();
+        world.fillRect(0, 0, 4, 4, grass);
+        world.setBackgroundTile(8, 8, grass);
+        world.setBackgroundTile(0, 0, TilePalette.DEFAULT_TILE);
+        history.endGroup();
+
+        List<Integer> bulkSizes = new ArrayList<>();
+        int[] single = new int[1];
+        world.addEditListener(new WorldEditListener()
+        {
+            @Override
+            public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+                single[0]++;
+            }
+
+            @Override
+            public void tilesChanged(TileChanges changes) {
+                bulkSizes.add(changes.size());
+            }
+
+            @Override
+            public void entityAdded(Entity entity) {
+            }
+
+            @Override
+            public void entityRemoved(Entity entity, int col, int row) {
+            }
+        });
+
+        assertTrue(history.undo());
+        assertEquals(List.of(18), bulkSizes);
+        assertEquals(0, single[0]);
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(0, 0));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(3, 3));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(8, 8));
+
+        assertTrue(history.redo());
+        assertEquals(List.of(18, 18), bulkSizes);
+        assertEquals(0, single[0]);
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(0, 0));
+        assertEquals(grass, world.getBackgroundTile(3, 3));
+        assertEquals(grass, world.getBackgroundTile(8, 8));
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditJournalTest
+{
+    @TempDir
+    Path dir;
+
+    private final WorldSaver saver = new WorldSaver();
+
+    @AfterEach
+    void shutDownSaver() {
+        this.saver.shutdown();
+    }
+
+    private Path base() throws IOException {
+        WorldModel world = TestWorlds.world(8, 8);
+        world.setBackgroundTile(0, 0, TestWorlds.tile(world, "dirt", 0x884422));
+        world.addEntity(TestWorlds.house(6, 6));
+        Path base = this.dir.resolve("world.sav");
+        WorldWriter.save(world, base);
+        return base;
+    }
+
+    private static WorldModel load(Path path) throws IOException {
+        WorldModel world = TestWorlds.world(0, 0);
+        new Parser().load(path, world, TestWorlds.imageStore());
+        return world;
+    }
+
+    private static String backgroundId(WorldModel world, int col, int row) {
+        return world.getPalette().get(world.getBackgroundTile(col, row)).getId();
+    }
+
+    private static void edit(WorldModel world) {
+        world.setBackgroundTile(3, 4, TestWorlds.tile(world, "grass", 0x22aa22));
+        world.addEntity(TestWorlds.house(2, 2));
+        world.removeEntity(world.getOccupancyCell(6, 6));
+    }
+
+    private static void assertEdited(WorldModel world) {
+        assertEquals("dirt", backgroundId(world, 0, 0));
+        assertEquals("grass", backgroundId(world, 3, 4));
+        assertTrue(world.isOccupied(2, 2));
+        assertFalse(world.isOccupied(6, 6));
+        assertEquals(1, world.getEntities().size());
+    }
+
+    @Test
+    void recoverReplaysAnUnclosedJournalIntoTheWorld() throws IOException {
+        Path base = this.base();
+        Path target = this.dir.resolve("output.sav");
+        WorldModel world = load(base);
+        EditJournal.open(world, target, base, this.saver, EditJournal.DEFAULT_COMPACT_THRESHOLD);
+        edit(world);
+
+        // The session ends without closing the journal
+        WorldModel recovered = TestWorlds.world(0, 0);
+        Path recoveredBase = EditJournal.recover(target, recovered, new Parser(), TestWorlds.imageStore());
+
+        assertEquals(target, recoveredBase);
+        assertEdited(recovered);
+        assertEdited(load(target));
+        assertFalse(Files.exists(EditJournal.journalPath(target)));
+    }
+
+    @Test
+    void recoverCoversSegmentsWhoseSaveDidNotFinish() throws IOException {
+        Path base = this.base();
+        Path target = this.dir.resolve("output.sav");
+        WorldModel world = load(base);
+        EditJournal journal = EditJournal.open(world, target, base, this.saver, 2);
+        edit(world);
+        this.saver.awaitIdle();
+        // Put back the segment as though its save had been cut short
+        Files.delete(target);
+        Files.writeString(EditJournal.journalPath(target).resolveSibling(
+                EditJournal.journalPath(target).getFileName() + ".1"),
+                "base world.sav\nbackground grass 3 4\nhouse house_2_2 2 2\n");
+        assertEquals(1, journal.getEdits());
+
+        WorldModel recovered = TestWorlds.world(0, 0);
+        EditJournal.recover(target, recovered, new Parser(), TestWorlds.imageStore());
+
+        assertEdited(recovered);
+        try (var files = Files.list(this.dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void recoverWithoutAJournalLeavesTheWorldAlone() throws IOException {
+        WorldModel world = TestWorlds.world(0, 0);
+
+        assertNull(EditJournal.recover(this.dir.resolve("output.sav"), world, new Parser(),
+                TestWorlds.imageStore()));
+        assertEquals(0, world.getNumCols());
+    }
+
+    @Test
+    void closeWritesTheEditsAndRemovesTheJournal() throws IOException {
+        Path base = this.base();
+        Path target = this.dir.resolve("output.sav");
+        WorldModel world = load(base);
+        EditJournal journal = EditJournal.open(world, target, base, this.saver,
+                EditJournal.DEFAULT_COMPACT_THRESHOLD);
+        edit(world);
+        journal.close();
+
+        assertEdited(load(target));
+        assertFalse(Files.exists(EditJournal.journalPath(target)));
+    }
+
+    @Test
+    void compactWithoutEditsDoesNotSave() throws IOException {
+        Path base = this.base();
+        Path target = this.dir.resolve("output.sav");
+        EditJournal journal = EditJournal.open(load(base), target, base, this.saver,
+                EditJournal.DEFAULT_COMPACT_THRESHOLD);
+        journal.sync();
+        journal.compact();
+        this.saver.awaitIdle();
+
+        assertFalse(Files.exists(target));
+        journal.close();
+        assertFalse(Files.exists(target));
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditScriptTest
+{
+    private static final String SCRIPT = "# every operation once\n"
+            + "\n"
+            + "fill grass 0 0 6 4\n"
+            + "paint dirt 2 2\n"
+            + "line dirt 0 10 9 13\n"
+            + "flood water 2 2\n"
+            + "house 5 5\n"
+            + "obstacle 6 6 300\n"
+            + "tree 7 7 500 1000 3\n"
+            + "house 8 8\n"
+            + "remove 8 8\n"
+            + "house 5 5\n"
+            + "paint grass 100 100\n";
+
+    @TempDir
+    Path dir;
+
+    private static EditScript parse(String line) throws IOException {
+        RecordReader in = RecordReader.of(line);
+        assertTrue(in.nextRecord());
+        return EditScript.parse(in);
+    }
+
+    private static void editDirectly(WorldModel world, ImageStore imageStore) {
+        // The edits of SCRIPT that take effect, interning the keys in the same order
+        TilePalette palette = world.getPalette();
+        world.fillRect(0, 0, 6, 4, palette.intern("grass", imageStore.getImageList("grass")));
+        world.setBackgroundTile(2, 2, palette.intern("dirt", imageStore.getImageList("dirt")));
+        world.paintLine(0, 10, 9, 13, palette.intern("dirt", imageStore.getImageList("dirt")));
+        world.floodFill(2, 2, palette.intern("water", imageStore.getImageList("water")));
+        world.addEntity(Factory.createHouse("house_5_5", new Point(5, 5), imageStore.getImageList("house")));
+        world.addEntity(Factory.createObstacle("obstacle_6_6", new Point(6, 6),
+                imageStore.getImageList("obstacle"), 300));
+        world.addEntity(Factory.createTree("tree_7_7", new Point(7, 7), imageStore.getImageList("tree"),
+                500, 1000, 3));
+    }
+
+    private byte[] saved(WorldModel world, String name) throws IOException {
+        Path path = this.dir.resolve(name);
+        WorldWriter.save(world, path);
+        return Files.readAllBytes(path);
+    }
+
+    @Test
+    void appliedScriptMatchesTheSameEditsMadeDirectly() throws IOException {
+        Path path = this.dir.resolve("edits.txt");
+        Files.writeString(path, SCRIPT);
+        ImageStore imageStore = TestWorlds.imageStore();
+        EditScript script = EditScript.read(path);
+        WorldModel scripted = TestWorlds.world(20, 20);
+        WorldModel direct = TestWorlds.world(20, 20);
+
+        script.apply(scripted, imageStore);
+        editDirectly(direct, imageStore);
+
+        assertEquals(11, script.size());
+        assertEquals(3, scripted.getEntities().size());
+        assertArrayEquals(this.saved(direct, "direct.sav"), this.saved(scripted, "scripted.sav"));
+    }
+
+    @Test
+    void malformedLinesAreReportedWithTheirLineNumber() throws IOException {
+        Path path = this.dir.resolve("bad.txt");
+
+        Files.writeString(path, "house 1 1\n\nsplash grass 1 1\n");
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class,
+                () -> EditScript.read(path));
+        assertEquals("unknown operation \"splash\" on script line 3", unknown.getMessage());
+
+        Files.writeString(path, "# fill needs a size\nfill grass 1 1 4\n");
+        IllegalArgumentException count = assertThrows(IllegalArgumentException.class,
+                () -> EditScript.read(path));
+        assertEquals("wrong number of arguments to fill on script line 2", count.getMessage());
+
+        Files.writeString(path, "paint grass 1 one\n");
+        IllegalArgumentException number = assertThrows(IllegalArgumentException.class,
+                () -> EditScript.read(path));
+        assertTrue(number.getMessage().startsWith("issue on script line 1"), number.getMessage());
+    }
+
+    @Test
+    void areasCoverTheTilesEachOperationCanChange() throws IOException {
+        assertArrayEquals(new int[] {3, 4, 1, 1}, parse("paint grass 3 4").getArea(0));
+        assertArrayEquals(new int[] {3, 4, 5, 6}, parse("fill grass 3 4 5 6").getArea(0));
+        assertNull(parse("flood grass 3 4").getArea(0));
+        assertArrayEquals(new int[] {2, 4, 8, 3}, parse("line grass 9 4 2 6").getArea(0));
+        assertArrayEquals(new int[] {Integer.MIN_VALUE, 0, Integer.MAX_VALUE, 1},
+                parse("line grass -2147483648 0 2147483647 0").getArea(0));
+        assertArrayEquals(new int[] {3, 4, 1, 1}, parse("house 3 4").getArea(0));
+        assertArrayEquals(new int[] {3, 4, 1, 1}, parse("obstacle 3 4 100").getArea(0));
+        assertArrayEquals(new int[] {3, 4, 1, 1}, parse("tree 3 4 500 1000 2").getArea(0));
+        assertArrayEquals(new int[] {3, 4, 1, 1}, parse("remove 3 4").getArea(0));
+    }
+
+    @Test
+    void batchEditorLoadsAppliesAndSavesEachMap() throws IOException, InterruptedException {
+        Path scriptPath = this.dir.resolve("edits.txt");
+        Files.writeString(scriptPath, SCRIPT);
+        Path map = this.dir.resolve("map.sav");
+        Files.writeString(map, "world 20 20\nbackground stone 19 19\nhouse house_1_1 1 1\n");
+        Path output = Files.createDirectory(this.dir.resolve("out"));
+
+        BatchEditor editor = new BatchEditor(EditScript.read(scriptPath), false);
+        int failed = editor.editAll(List.of(map, this.dir.resolve("missing.sav")), output, 2);
+
+        ImageStore imageStore = TestWorlds.imageStore();
+        WorldModel expected = TestWorlds.world(0, 0);
+        new Parser().load(map, expected, imageStore);
+        editDirectly(expected, imageStore);
+        assertEquals(1, failed);
+        assertArrayEquals(this.saved(expected, "expected.sav"), Files.readAllBytes(output.resolve("map.sav")));
+    }
+}
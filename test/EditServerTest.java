@@ -0,0 +1,174 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditServerTest
+{
+    @TempDir
+    Path dir;
+
+    private WorldModel world;
+    private int port;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        this.world = TestWorlds.world(128, 128);
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            this.port = probe.getLocalPort();
+        }
+        // The directory is never created, so saving fails
+        EditServer server = new EditServer(this.world, TestWorlds.imageStore(),
+                this.dir.resolve("missing").resolve("world.sav"));
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve(this.port);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private Socket connect() throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), this.port);
+            }
+            catch (ConnectException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static String send(PrintWriter out, BufferedReader in, String command) throws IOException {
+        out.println(command);
+        out.flush();
+        return in.readLine();
+    }
+
+    @Test
+    void failedSaveIsReportedAndTheSessionGoesOn() throws Exception {
+        try (Socket socket = this.connect()) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            assertTrue(send(out, in, "save").startsWith("error "));
+            assertEquals("ok", send(out, in, "fill grass 0 0 2 2"));
+        }
+        assertEquals("grass", this.world.getPalette().get(this.world.getBackgroundTile(1, 1)).getId());
+        assertTrue(Files.notExists(this.dir.resolve("missing")));
+    }
+
+    @Test
+    void clientsAddingTilesAtOnceAllSeeThem() throws Exception {
+        // Each client fills its own quarter with keys the palette has not seen yet
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int client = 0; client < 4; client++) {
+                int first = client * 32;
+                tasks.add(() -> {
+                    try (Socket socket = this.connect()) {
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        for (int row = 0; row < 32; row++) {
+                            assertEquals("ok", send(out, in,
+                                    "fill key_" + first + "_" + row + " " + first + " " + row + " 32 1"));
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> task : clients.invokeAll(tasks)) {
+                task.get();
+            }
+        }
+        finally {
+            clients.shutdown();
+        }
+
+        assertEquals(1 + 4 * 32, this.world.getPalette().size());
+        for (int col = 0; col < 128; col++) {
+            for (int row = 0; row < 32; row++) {
+                assertEquals("key_" + (col & ~31) + "_" + row,
+                        this.world.getPalette().get(this.world.getBackgroundTile(col, row)).getId());
+            }
+        }
+    }
+
+    @Test
+    void viewersGetTheirRegionAndThenOnlyTheChangesInsideIt() throws Exception {
+        this.world.setBackgroundTile(1, 1, TestWorlds.tile(this.world, "grass", 0x00ff00));
+        this.world.addEntity(TestWorlds.house(2, 2));
+
+        try (Socket viewer = this.connect(); Socket editor = this.connect()) {
+            PrintWriter viewerOut = new PrintWriter(viewer.getOutputStream(), false, StandardCharsets.UTF_8);
+            BufferedReader viewerIn = new BufferedReader(
+                    new InputStreamReader(viewer.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter editorOut = new PrintWriter(editor.getOutputStream(), false, StandardCharsets.UTF_8);
+            BufferedReader editorIn = new BufferedReader(
+                    new InputStreamReader(editor.getInputStream(), StandardCharsets.UTF_8));
+
+            List<String> region = new ArrayList<>();
+            region.add(send(viewerOut, viewerIn, "view 0 0 3 3"));
+            for (int i = 0; i < 10; i++) {
+                region.add(viewerIn.readLine());
+            }
+            assertEquals(List.of(
+                    "background background_default 0 0",
+                    "background background_default 1 0",
+                    "background background_default 2 0",
+                    "background background_default 0 1",
+                    "background grass 1 1",
+                    "background background_default 2 1",
+                    "background background_default 0 2",
+                    "background background_default 1 2",
+                    "background background_default 2 2",
+                    "house house_2_2 2 2",
+                    "ok"), region);
+
+            // Every edit is broadcast before the editor's ok, so the viewer has been sent it by then
+            assertEquals("ok", send(editorOut, editorIn, "paint dirt 20 20"));
+            assertEquals("ok", send(editorOut, editorIn, "house 1 0"));
+            assertEquals("ok", send(editorOut, editorIn, "remove 2 2"));
+            assertEquals("ok", send(editorOut, editorIn, "house 40 40"));
+            assertEquals("ok", send(editorOut, editorIn, "fill water 2 1 10 10"));
+
+            assertEquals("house house_1_0 1 0", viewerIn.readLine());
+            assertEquals("remove 2 2", viewerIn.readLine());
+            assertEquals("background water 2 1", viewerIn.readLine());
+            assertEquals("background water 2 2", viewerIn.readLine());
+            // Nothing else was queued: the viewer's own edit comes back next, then its reply
+            assertEquals("house house_0_0 0 0", send(viewerOut, viewerIn, "house 0 0"));
+            assertEquals("ok", viewerIn.readLine());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EditorStatsTest
+{
+    private static final long MILLI = 1_000_000L;
+    private static final long SECOND = 1_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    // The clock starts a second in, as System.nanoTime would be well past zero
+    private final long[] now = {SECOND};
+    private final EditorStats stats = new EditorStats(() -> this.now[0]);
+
+    private void frame(long start, long millis) {
+        this.now[0] = start;
+        this.stats.beginFrame();
+        this.now[0] = start + millis * MILLI;
+        this.stats.endFrame(5, 2);
+    }
+
+    @Test
+    void theAverageFollowsEachFrameByASmallStep() {
+        this.frame(SECOND, 10);
+        assertEquals(10.0, this.stats.getAverageFrameMillis(), 1e-9);
+
+        this.frame(SECOND + 20 * MILLI, 30);
+        assertEquals(30.0, this.stats.getFrameMillis(), 1e-9);
+        assertEquals(11.0, this.stats.getAverageFrameMillis(), 1e-9);
+        assertEquals(2, this.stats.getFrames());
+        assertEquals(5, this.stats.getTilesDrawn());
+        assertEquals(2, this.stats.getEntitiesDrawn());
+    }
+
+    @Test
+    void theMaximumIsPublishedOncePerSecond() {
+        this.frame(SECOND, 10);
+        assertEquals(10.0, this.stats.getMaxFrameMillis(), 1e-9);
+
+        // A spike inside the window is only shown once the window closes
+        this.frame(SECOND + 10 * MILLI, 40);
+        assertEquals(10.0, this.stats.getMaxFrameMillis(), 1e-9);
+        this.frame(2 * SECOND, 15);
+        assertEquals(40.0, this.stats.getMaxFrameMillis(), 1e-9);
+
+        // And is forgotten by the next window
+        this.frame(3 * SECOND, 20);
+        assertEquals(20.0, this.stats.getMaxFrameMillis(), 1e-9);
+    }
+
+    @Test
+    void editAndSaveTimesAreKeptInMilliseconds() {
+        this.stats.recordEdit(2_500_000L);
+        this.stats.recordSave(1_250_000_000L);
+
+        assertEquals(2.5, this.stats.getEditMillis(), 1e-9);
+        assertEquals(1250.0, this.stats.getSaveMillis(), 1e-9);
+    }
+
+    @Test
+    void csvHasAHeaderAndARowPerFrame() throws IOException {
+        Path path = this.dir.resolve("stats.csv");
+        this.stats.startCsv(path);
+        this.stats.recordEdit(2_500_000L);
+        this.frame(SECOND, 10);
+        this.frame(SECOND + 500 * MILLI, 4);
+        this.stats.close();
+
+        List<String> lines = Files.readAllLines(path);
+        assertEquals(3, lines.size());
+        assertEquals("time_ms,frame_ms,tiles_drawn,entities_drawn,edit_ms,save_ms,alloc_bytes_per_s",
+                lines.get(0));
+        // The allocation rate is measured on the real thread, so only its form is checked
+        assertTrue(lines.get(1).matches("10,10\\.000,5,2,2\\.500,0\\.000,\\d+"), lines.get(1));
+        assertTrue(lines.get(2).matches("504,4\\.000,5,2,2\\.500,0\\.000,\\d+"), lines.get(2));
+    }
+
+    @Test
+    void aFailedWriteClosesTheCsv() throws IOException {
+        boolean[] full = new boolean[1];
+        int[] closed = new int[1];
+        Writer disk = new Writer()
+        {
+            @Override
+            public void write(char[] text, int offset, int length) throws IOException {
+                if (full[0]) {
+                    throw new IOException("disk full");
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+                closed[0]++;
+            }
+        };
+        this.stats.startCsv(disk);
+        full[0] = true;
+
+        this.frame(SECOND, 10);
+        this.frame(SECOND + 20 * MILLI, 5);
+        this.stats.close();
+
+        assertEquals(1, closed[0]);
+        assertEquals(2, this.stats.getFrames());
+    }
+}
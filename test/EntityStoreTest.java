@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EntityStoreTest
+{
+    @Test
+    void derivedIdsAreFoundWithoutBeingBuilt() {
+        EntityStore store = new EntityStore(TestWorlds.imageStore());
+        int house = store.addHouse(3, 4);
+        int tree = store.addTree(-1, 120, 500, 1000, 2);
+
+        assertEquals(house, store.find("house_3_4"));
+        assertEquals(tree, store.find("tree_-1_120"));
+        assertEquals(EntityStore.NO_ENTITY, store.find("house_3_40"));
+        assertEquals(EntityStore.NO_ENTITY, store.find("house_3"));
+        assertEquals(EntityStore.NO_ENTITY, store.find("tree_3_4"));
+        assertEquals("tree_-1_120", store.getId(tree));
+        assertEquals("tree tree_-1_120 -1 120 500 1000 2", store.createStoreLine(tree));
+    }
+
+    @Test
+    void derivedAndGivenIdsClash() {
+        EntityStore store = new EntityStore(TestWorlds.imageStore());
+        store.addHouse(3, 4);
+        store.add(EntityStore.OBSTACLE, "obstacle_5_5", 0, 0, 100, 0, 0);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.add(EntityStore.HOUSE, "house_3_4", 9, 9, 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> store.addObstacle(5, 5, 100));
+    }
+
+    @Test
+    void movedEntitiesKeepTheirId() {
+        EntityStore store = new EntityStore(TestWorlds.imageStore());
+        int house = store.addHouse(3, 4);
+
+        store.setPosition(house, 7, 8);
+
+        assertEquals(house, store.find("house_3_4"));
+        assertEquals(EntityStore.NO_ENTITY, store.find("house_7_8"));
+        assertEquals("house house_3_4 7 8", store.createStoreLine(house));
+        assertThrows(IllegalArgumentException.class, () -> store.addHouse(3, 4));
+    }
+
+    @Test
+    void removingShiftsLaterEntriesBackSoTheyAreStillFound() {
+        EntityStore store = new EntityStore(TestWorlds.imageStore());
+        List<Integer> handles = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            handles.add(store.addTree(i % 50, i / 50, 0, 0, 1));
+        }
+
+        for (int i = 0; i < handles.size(); i += 2) {
+            store.remove(handles.get(i));
+        }
+
+        assertEquals(1000, store.size());
+        for (int i = 0; i < handles.size(); i++) {
+            int found = store.find("tree_" + (i % 50) + "_" + (i / 50));
+            assertEquals(i % 2 == 0 ? EntityStore.NO_ENTITY : handles.get(i), found);
+        }
+        // The most recently removed handle is reused first
+        assertEquals((int) handles.get(handles.size() - 2), store.addHouse(0, 0));
+    }
+
+    @Test
+    void matchesAMapUnderRandomAddsAndRemoves() {
+        EntityStore store = new EntityStore(TestWorlds.imageStore());
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int step = 0; step < 20000; step++) {
+            int x = random.nextInt(40) - 5;
+            int y = random.nextInt(40);
+            boolean named = random.nextBoolean();
+            String id = named ? "obstacle_" + x + "_" + y : "house_" + x + "_" + y;
+            Integer handle = expected.get(id);
+            if (handle == null) {
+                int added = named ? store.add(EntityStore.OBSTACLE, id, x, y, 1, 0, 0) : store.addHouse(x, y);
+                expected.put(id, added);
+            }
+            else {
+                store.remove(handle);
+                expected.remove(id);
+            }
+
+            if (step % 1000 == 0) {
+                for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), store.find(entry.getKey()));
+                    assertEquals(entry.getKey(), store.getId(entry.getValue()));
+                }
+            }
+        }
+        assertEquals(expected.size(), store.size());
+        int[] count = new int[1];
+        store.forEach(handle -> count[0]++);
+        assertEquals(expected.size(), count[0]);
+    }
+
+    @Test
+    void entitiesConvertBothWays() {
+        EntityStore store = new EntityStore(TestWorlds.imageStore());
+        Entity tree = Factory.createTree("tree_big", new Point(2, 3), List.of(TestWorlds.image(0)), 10, 20, 3);
+
+        int handle = store.add(tree);
+        Entity copy = store.toEntity(handle);
+
+        assertEquals(tree.createStoreLine(), copy.createStoreLine());
+        assertEquals(tree.createStoreLine(), store.createStoreLine(handle));
+        assertEquals(handle, store.find("tree_big"));
+    }
+}
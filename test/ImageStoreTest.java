@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+import processing.core.PImage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ImageStoreTest
+{
+    private static void assertPacked(FrameList frames, int index) {
+        PImage frame = frames.get(index);
+        PImage page = frames.getPage(index);
+        frame.loadPixels();
+        for (int y = 0; y < frame.height; y++) {
+            for (int x = 0; x < frame.width; x++) {
+                assertEquals(frame.pixels[y * frame.width + x] | 0xff000000,
+                        page.pixels[(frames.getPageY(index) + y) * page.width + frames.getPageX(index) + x]);
+            }
+        }
+    }
+
+    @Test
+    void everyFrameIsCopiedToItsRegionOfAPage() {
+        ImageStore imageStore = TestWorlds.imageStore();
+        for (int i = 0; i < 100; i++) {
+            imageStore.getImages(imageStore.getImages(), "key" + (i % 7)).add(TestWorlds.image(i * 0x010203));
+        }
+        assertNull(((FrameList) imageStore.getImageList("key0")).getPage(0));
+
+        imageStore.packAtlas();
+
+        assertEquals(1, imageStore.getAtlasPages().size());
+        for (int i = 0; i < 7; i++) {
+            FrameList frames = (FrameList) imageStore.getImageList("key" + i);
+            for (int j = 0; j < frames.size(); j++) {
+                assertPacked(frames, j);
+            }
+        }
+        assertPacked((FrameList) imageStore.getImageList("missing"), 0);
+    }
+
+    @Test
+    void framesSpillOntoANewPageWhenOneIsFull() {
+        ImageStore imageStore = TestWorlds.imageStore();
+        // A page holds 1024 / 32 by 2048 / 32 frames, one of them the default
+        List<PImage> frames = imageStore.getImages(imageStore.getImages(), "many");
+        for (int i = 0; i < 32 * 64; i++) {
+            frames.add(TestWorlds.image(i));
+        }
+
+        imageStore.packAtlas();
+
+        FrameList packed = (FrameList) frames;
+        assertEquals(2, imageStore.getAtlasPages().size());
+        assertSame(imageStore.getAtlasPages().get(1), packed.getPage(packed.size() - 1));
+        assertEquals(0, packed.getPageX(packed.size() - 1));
+        assertEquals(0, packed.getPageY(packed.size() - 1));
+        assertPacked(packed, packed.size() - 1);
+        assertPacked(packed, packed.size() - 2);
+    }
+
+    @Test
+    void framesSharedBetweenKeysArePackedOnce() {
+        ImageStore imageStore = TestWorlds.imageStore();
+        PImage shared = TestWorlds.image(0x123456);
+        imageStore.getImages(imageStore.getImages(), "a").add(shared);
+        imageStore.getImages(imageStore.getImages(), "b").add(shared);
+
+        imageStore.packAtlas();
+
+        FrameList a = (FrameList) imageStore.getImageList("a");
+        FrameList b = (FrameList) imageStore.getImageList("b");
+        assertEquals(a.getPageX(0), b.getPageX(0));
+        assertEquals(a.getPageY(0), b.getPageY(0));
+        assertEquals(TestWorlds.TILE_SIZE, imageStore.getAtlasPages().get(0).height);
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PApplet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MinimapTest
+{
+    // A 100 x 60 world fits into 64 pixels two tiles to a pixel
+    private static final int MAX_SIZE = 64;
+
+    private WorldModel world;
+    private WorldView view;
+    private short grass;
+
+    @BeforeEach
+    void createWorld() {
+        this.world = TestWorlds.world(100, 60);
+        this.grass = TestWorlds.tile(this.world, "grass", 0x00ff00);
+        this.view = new WorldView(8, 10, TestWorlds.screen(10 * TestWorlds.TILE_SIZE, 8 * TestWorlds.TILE_SIZE),
+                this.world, TestWorlds.TILE_SIZE, TestWorlds.TILE_SIZE);
+    }
+
+    private int[] drawn(Minimap minimap) {
+        PApplet screen = TestWorlds.screen(MAX_SIZE, MAX_SIZE);
+        minimap.draw(screen, this.view, 0, 0);
+        screen.g.loadPixels();
+        return screen.g.pixels.clone();
+    }
+
+    @Test
+    void editedBlocksMatchARebuild() {
+        Minimap minimap = new Minimap(this.world, MAX_SIZE);
+        this.drawn(minimap);
+
+        this.world.fillRect(10, 10, 7, 5, this.grass);
+        this.world.setBackgroundTile(99, 59, this.grass);
+        this.world.addEntity(TestWorlds.house(40, 30));
+        this.world.addEntity(TestWorlds.house(41, 30));
+        this.world.removeEntity(this.world.getOccupancyCell(41, 30));
+
+        assertArrayEquals(this.drawn(new Minimap(this.world, MAX_SIZE)), this.drawn(minimap));
+    }
+
+    @Test
+    void blocksAreAPowerOfTwoTilesAcross() {
+        Minimap minimap = new Minimap(this.world, MAX_SIZE);
+
+        assertEquals(50, minimap.getWidth());
+        assertEquals(30, minimap.getHeight());
+        // Small worlds are drawn several pixels to a tile
+        assertEquals(60, new Minimap(TestWorlds.world(20, 10), MAX_SIZE).getWidth());
+    }
+
+    @Test
+    void screenToWorldFollowsWhereTheMapWasDrawn() {
+        Minimap minimap = new Minimap(this.world, MAX_SIZE);
+        minimap.draw(TestWorlds.screen(200, 200), this.view, 10, 20);
+
+        assertEquals(new Point(0, 0), minimap.screenToWorld(10, 20));
+        assertEquals(new Point(10, 6), minimap.screenToWorld(15, 23));
+        assertEquals(new Point(98, 58), minimap.screenToWorld(59, 49));
+        assertNull(minimap.screenToWorld(9, 20));
+        assertNull(minimap.screenToWorld(60, 20));
+        assertNull(minimap.screenToWorld(10, 50));
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+import processing.core.PApplet;
+import processing.core.PImage;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParserTest
+{
+    private static WorldModel load(String text) throws IOException {
+        WorldModel world = TestWorlds.world(0, 0);
+        try (RecordReader in = RecordReader.of(text)) {
+            new Parser().load(in, world, TestWorlds.imageStore());
+        }
+        return world;
+    }
+
+    private static String backgroundId(WorldModel world, int col, int row) {
+        return world.getPalette().get(world.getBackgroundTile(col, row)).getId();
+    }
+
+    @Test
+    void loadsWorldBackgroundsAndEntities() throws IOException {
+        WorldModel world = load("world 8 6\n"
+                + "background grass 1 2\n"
+                + "house house_3_4 3 4\n"
+                + "tree tree_5_1 5 1 500 1000 2\n");
+
+        assertEquals(8, world.getNumCols());
+        assertEquals(6, world.getNumRows());
+        assertEquals("grass", backgroundId(world, 1, 2));
+        assertEquals("house_3_4", world.getOccupant(new Point(3, 4)).get().getId());
+        assertEquals("tree_5_1", world.getOccupant(new Point(5, 1)).get().getId());
+        assertEquals(2, world.getEntities().size());
+    }
+
+    @Test
+    void loadsCrlfFilesWithoutATrailingNewline() throws IOException {
+        WorldModel world = load("background dirt 0 0\r\nbackground grass 4 2");
+
+        assertEquals(5, world.getNumCols());
+        assertEquals(3, world.getNumRows());
+        assertEquals("dirt", backgroundId(world, 0, 0));
+        assertEquals("grass", backgroundId(world, 4, 2));
+    }
+
+    @Test
+    void skipsMalformedRecordsAndKeepsLoading() throws IOException {
+        WorldModel world = load("world 4 4\n"
+                + "background grass x 1\n"
+                + "house house_1_1 1\n"
+                + "background dirt 2 3\n");
+
+        assertEquals("dirt", backgroundId(world, 2, 3));
+        assertTrue(world.getEntities().isEmpty());
+    }
+
+    @Test
+    void processLineRejectsWrongFieldCounts() {
+        WorldModel world = TestWorlds.world(4, 4);
+
+        assertTrue(new Parser().processLine("background grass 1 1", world, TestWorlds.imageStore()));
+        assertFalse(new Parser().processLine("background grass 1", world, TestWorlds.imageStore()));
+    }
+
+    @Test
+    void loadImagesKeepsTheFramesOfEachKeyInListOrder() throws IOException {
+        ImageStore imageStore = TestWorlds.imageStore();
+        PApplet screen = TestWorlds.screen(TestWorlds.TILE_SIZE, TestWorlds.TILE_SIZE);
+        String list = "obstacle images/water0.png\n"
+                + "obstacle images/water1.png\n"
+                + "grass images/grass.png\n"
+                + "obstacle images/water2.png\n"
+                + "missing images/missing.png\n";
+
+        // Loading twice shows nothing is left shut down by the first call
+        for (int pass = 0; pass < 2; pass++) {
+            try (RecordReader in = RecordReader.of(list)) {
+                new Parser().loadImages(in, screen, imageStore);
+            }
+        }
+
+        List<PImage> water = imageStore.getImageList("obstacle");
+        assertEquals(6, water.size());
+        PImage first = screen.loadImage("images/water0.png");
+        first.loadPixels();
+        water.get(3).loadPixels();
+        assertArrayEquals(first.pixels, water.get(3).pixels);
+        assertEquals(2, imageStore.getImageList("grass").size());
+        assertSame(imageStore.getImageList("unknown"), imageStore.getImageList("missing"));
+    }
+}
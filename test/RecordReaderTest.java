@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordReaderTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    void splitsFieldsOnAnyRunOfWhitespace() throws IOException {
+        RecordReader in = RecordReader.of("  background\tgrass   3 4  \n");
+
+        assertTrue(in.nextRecord());
+        assertEquals(4, in.getFieldCount());
+        assertEquals("background", in.getString(0));
+        assertEquals("grass", in.getString(1));
+        assertEquals(3, in.getInt(2));
+        assertEquals(4, in.getInt(3));
+        assertFalse(in.nextRecord());
+    }
+
+    @Test
+    void carriageReturnsAreNotPartOfTheLastField() throws IOException {
+        RecordReader in = RecordReader.of("world 5 6\r\nbackground dirt 1 2\r\n");
+
+        assertTrue(in.nextRecord());
+        assertEquals(6, in.getInt(2));
+        assertTrue(in.nextRecord());
+        assertEquals(2, in.getInt(3));
+        assertEquals(2, in.getLineNumber());
+        assertFalse(in.nextRecord());
+    }
+
+    @Test
+    void lastLineWithoutNewlineIsARecord() throws IOException {
+        RecordReader in = RecordReader.of("a 1\nb 2");
+
+        assertTrue(in.nextRecord());
+        assertTrue(in.nextRecord());
+        assertEquals("b", in.getString(0));
+        assertEquals(2, in.getInt(1));
+        assertFalse(in.nextRecord());
+        assertFalse(in.nextRecord());
+    }
+
+    @Test
+    void blankLinesAreRecordsWithNoFields() throws IOException {
+        RecordReader in = RecordReader.of("a\n\n \t\nb\n");
+
+        assertTrue(in.nextRecord());
+        assertTrue(in.nextRecord());
+        assertEquals(0, in.getFieldCount());
+        assertTrue(in.nextRecord());
+        assertEquals(0, in.getFieldCount());
+        assertTrue(in.nextRecord());
+        assertEquals("b", in.getString(0));
+        assertEquals(4, in.getLineNumber());
+    }
+
+    @Test
+    void quotesAreOrdinaryCharacters() throws IOException {
+        // The save format has no quoting; fields end at whitespace as String.split did
+        RecordReader in = RecordReader.of("house \"my house\" 1 2\n");
+
+        assertTrue(in.nextRecord());
+        assertEquals(5, in.getFieldCount());
+        assertEquals("\"my", in.getString(1));
+        assertEquals("house\"", in.getString(2));
+    }
+
+    @Test
+    void linesLongerThanTheBufferAreReadWhole() throws IOException {
+        StringBuilder text = new StringBuilder("first 1\nlong");
+        for (int i = 0; i < 40_000; i++) {
+            text.append(' ').append(i);
+        }
+        text.append("\nlast 2\n");
+        RecordReader in = RecordReader.of(text.toString());
+
+        assertTrue(in.nextRecord());
+        assertTrue(in.nextRecord());
+        assertEquals(40_001, in.getFieldCount());
+        assertEquals(39_999, in.getInt(40_000));
+        assertTrue(in.nextRecord());
+        assertEquals("last", in.getString(0));
+    }
+
+    @Test
+    void parsesIntegersAtTheirLimits() throws IOException {
+        RecordReader in = RecordReader.of("2147483647 -2147483648 +7 -0\n2147483648 - 12x\n");
+
+        assertTrue(in.nextRecord());
+        assertEquals(Integer.MAX_VALUE, in.getInt(0));
+        assertEquals(Integer.MIN_VALUE, in.getInt(1));
+        assertEquals(7, in.getInt(2));
+        assertEquals(0, in.getInt(3));
+
+        assertTrue(in.nextRecord());
+        assertThrows(NumberFormatException.class, () -> in.getInt(0));
+        assertThrows(NumberFormatException.class, () -> in.getInt(1));
+        assertThrows(NumberFormatException.class, () -> in.getInt(2));
+    }
+
+    @Test
+    void keysAreSharedInstances() throws IOException {
+        RecordReader in = RecordReader.of("grass 1\ngrass 2\n");
+
+        assertTrue(in.nextRecord());
+        String first = in.getKey(0);
+        assertTrue(in.nextRecord());
+        assertSame(first, in.getKey(0));
+    }
+
+    @Test
+    void compressedFilesAreReadTransparently() throws IOException {
+        Path path = this.dir.resolve("world.sav.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write("world 2 3\nbackground grass 0 0\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (RecordReader in = RecordReader.open(path)) {
+            assertTrue(in.nextRecord());
+            assertEquals(3, in.getInt(2));
+            assertTrue(in.nextRecord());
+            assertEquals("grass", in.getString(1));
+            assertFalse(in.nextRecord());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import processing.awt.PGraphicsJava2D;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Worlds and images for the tests, built without a window or image files.
+ */
+final class TestWorlds
+{
+    static final int TILE_SIZE = 32;
+
+    private TestWorlds() {
+    }
+
+    /**
+     * A TILE_SIZE square image of one opaque colour.
+     */
+    static PImage image(int rgb) {
+        PImage image = new PImage(TILE_SIZE, TILE_SIZE, PApplet.RGB);
+        image.loadPixels();
+        Arrays.fill(image.pixels, 0xff000000 | rgb);
+        image.updatePixels();
+        return image;
+    }
+
+    static ImageStore imageStore() {
+        return new ImageStore(image(0x808080));
+    }
+
+    static WorldModel world(int numCols, int numRows) {
+        return new WorldModel(numRows, numCols, imageStore().createDefaultBackground());
+    }
+
+    static short tile(WorldModel world, String id, int rgb) {
+        return world.getPalette().intern(id, List.of(image(rgb)));
+    }
+
+    /**
+     * A sketch that draws to an offscreen Java2D renderer, standing in for
+     * the window.
+     */
+    static PApplet screen(int width, int height) {
+        PApplet screen = new PApplet();
+        PGraphics graphics = new PGraphicsJava2D();
+        graphics.setParent(screen);
+        graphics.setPrimary(false);
+        graphics.setSize(width, height);
+        screen.g = graphics;
+        graphics.beginDraw();
+        return screen;
+    }
+
+    static Entity house(int col, int row) {
+        return Factory.createHouse("house_" + col + "_" + row, new Point(col, row), List.of(image(0xaa4422)));
+    }
+}
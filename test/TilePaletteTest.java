@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TilePaletteTest
+{
+    @Test
+    void internReturnsTheSameIndexForAnId() {
+        TilePalette palette = new TilePalette(TestWorlds.imageStore().createDefaultBackground());
+
+        short grass = palette.intern("grass", List.of(TestWorlds.image(0x00ff00)));
+        short dirt = palette.intern("dirt", List.of(TestWorlds.image(0x884400)));
+
+        assertNotEquals(TilePalette.DEFAULT_TILE, grass);
+        assertNotEquals(grass, dirt);
+        assertEquals(grass, palette.intern("grass", List.of(TestWorlds.image(0x000000))));
+        assertEquals(grass, palette.indexOf(palette.get(grass)));
+        assertEquals(3, palette.size());
+    }
+
+    @Test
+    void tilesWithTheSameIdShareOneBackground() {
+        WorldModel world = TestWorlds.world(10, 10);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        world.setBackgroundTile(1, 1, grass);
+        world.setBackgroundTile(8, 8, grass);
+
+        assertSame(world.getBackgroundCell(1, 1), world.getBackgroundCell(8, 8));
+        assertSame(world.getDefaultBackground(), world.getBackgroundCell(5, 5));
+    }
+
+    @Test
+    void growsPastItsInitialCapacity() {
+        TilePalette palette = new TilePalette(TestWorlds.imageStore().createDefaultBackground());
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(i, palette.intern("tile" + i, List.of(TestWorlds.image(i))));
+        }
+        assertEquals("tile77", palette.get(77).getId());
+    }
+
+    @Test
+    void copiesDoNotSeeLaterTiles() {
+        TilePalette palette = new TilePalette(TestWorlds.imageStore().createDefaultBackground());
+        palette.intern("grass", List.of(TestWorlds.image(0x00ff00)));
+        TilePalette copy = palette.copy();
+
+        palette.intern("dirt", List.of(TestWorlds.image(0x884400)));
+
+        assertEquals(2, copy.size());
+        assertEquals(3, palette.size());
+    }
+}
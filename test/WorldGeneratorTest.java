@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class WorldGeneratorTest
+{
+    // Not a whole number of chunks either way, so the last chunks are partial
+    private static final int COLS = 75;
+    private static final int ROWS = 45;
+
+    @TempDir
+    Path dir;
+
+    private byte[] write(long seed, int threads, String name) throws IOException {
+        Path path = this.dir.resolve(name);
+        WorldGenerator generator = new WorldGenerator(seed, threads);
+        try {
+            generator.write(path, COLS, ROWS, TestWorlds.imageStore());
+        }
+        finally {
+            generator.shutdown();
+        }
+        return Files.readAllBytes(path);
+    }
+
+    @Test
+    void theSameSeedGivesTheSameFileOnAnyNumberOfThreads() throws IOException {
+        byte[] serial = this.write(7, 1, "serial.sav");
+
+        assertArrayEquals(serial, this.write(7, 4, "parallel.sav"));
+        assertFalse(Arrays.equals(serial, this.write(8, 4, "other.sav")));
+    }
+
+    @Test
+    void writtenFileMatchesSavingTheGeneratedWorld() throws IOException {
+        WorldModel world = TestWorlds.world(COLS, ROWS);
+        WorldGenerator generator = new WorldGenerator(7, 2);
+        try {
+            generator.generate(world, TestWorlds.imageStore());
+        }
+        finally {
+            generator.shutdown();
+        }
+        Path saved = this.dir.resolve("saved.sav");
+        WorldWriter.save(world, saved);
+
+        assertArrayEquals(Files.readAllBytes(saved), this.write(7, 2, "written.sav"));
+    }
+
+    @Test
+    void gzipOutputIsCompressed() throws IOException {
+        byte[] plain = this.write(7, 2, "plain.sav");
+        this.write(7, 2, "compressed.sav" + WorldWriter.GZIP_EXTENSION);
+
+        try (InputStream in = new GZIPInputStream(
+                Files.newInputStream(this.dir.resolve("compressed.sav" + WorldWriter.GZIP_EXTENSION)))) {
+            assertArrayEquals(plain, in.readAllBytes());
+        }
+        WorldModel loaded = TestWorlds.world(0, 0);
+        new Parser().load(this.dir.resolve("compressed.sav" + WorldWriter.GZIP_EXTENSION), loaded,
+                TestWorlds.imageStore());
+        assertEquals(COLS, loaded.getNumCols());
+        assertEquals(ROWS, loaded.getNumRows());
+    }
+}
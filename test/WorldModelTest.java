@@ -0,0 +1,243 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldModelTest
+{
+    @Test
+    void untouchedChunksAreNotAllocated() {
+        WorldModel world = TestWorlds.world(1000, 1000);
+
+        assertEquals(32, world.getChunkCols());
+        assertEquals(32, world.getChunkRows());
+        assertNull(world.getChunkTiles(0, 0));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(999, 999));
+    }
+
+    @Test
+    void chunkIsReleasedWhenItHoldsOnlyDefaultsAgain() {
+        WorldModel world = TestWorlds.world(100, 100);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+
+        world.setBackgroundTile(40, 5, grass);
+        assertNotNull(world.getChunkTiles(1, 0));
+        assertEquals(grass, world.getBackgroundTile(40, 5));
+
+        world.setBackgroundTile(40, 5, TilePalette.DEFAULT_TILE);
+        assertNull(world.getChunkTiles(1, 0));
+    }
+
+    @Test
+    void tilesOnEitherSideOfAChunkEdgeAreKeptApart() {
+        WorldModel world = TestWorlds.world(64, 64);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+
+        world.setBackgroundTile(Chunk.SIZE - 1, Chunk.SIZE - 1, grass);
+        world.setBackgroundTile(Chunk.SIZE, Chunk.SIZE, dirt);
+
+        assertEquals(grass, world.getBackgroundTile(Chunk.SIZE - 1, Chunk.SIZE - 1));
+        assertEquals(dirt, world.getBackgroundTile(Chunk.SIZE, Chunk.SIZE));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(Chunk.SIZE, Chunk.SIZE - 1));
+    }
+
+    @Test
+    void growingKeepsTilesAndEntitiesInPlace() {
+        WorldModel world = TestWorlds.world(40, 40);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        Entity house = TestWorlds.house(35, 3);
+        world.setBackgroundTile(33, 39, grass);
+        world.addEntity(house);
+
+        world.ensureSize(200, 300);
+
+        assertEquals(300, world.getNumCols());
+        assertEquals(200, world.getNumRows());
+        assertEquals(grass, world.getBackgroundTile(33, 39));
+        assertSame(house, world.getOccupancyCell(35, 3));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(299, 199));
+    }
+
+    @Test
+    void editsOutsideTheWorldAreIgnored() {
+        WorldModel world = TestWorlds.world(10, 10);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+
+        world.setBackgroundTile(-1, 0, grass);
+        world.setBackgroundTile(10, 0, grass);
+        world.addEntity(TestWorlds.house(0, 10));
+
+        assertNull(world.getChunkTiles(0, 0));
+        assertTrue(world.getEntities().isEmpty());
+        assertFalse(world.isOccupied(0, 10));
+    }
+
+    @Test
+    void regionQueryFindsEntitiesInOverlappingChunksOnly() {
+        WorldModel world = TestWorlds.world(100, 100);
+        world.addEntity(TestWorlds.house(Chunk.SIZE - 1, 5));
+        world.addEntity(TestWorlds.house(Chunk.SIZE, 5));
+        world.addEntity(TestWorlds.house(Chunk.SIZE + 4, 6));
+        world.addEntity(TestWorlds.house(90, 90));
+
+        List<Entity> found = world.getEntitiesIn(Chunk.SIZE - 1, 5, 2, 2);
+
+        assertEquals(Set.of(world.getOccupancyCell(Chunk.SIZE - 1, 5), world.getOccupancyCell(Chunk.SIZE, 5)),
+                Set.copyOf(found));
+        assertEquals(2, found.size());
+        assertEquals(4, world.getEntitiesIn(-10, -10, 200, 200).size());
+        assertTrue(world.getEntitiesIn(50, 50, 10, 10).isEmpty());
+    }
+
+    @Test
+    void movedEntitiesAreFoundInTheirNewChunk() {
+        WorldModel world = TestWorlds.world(100, 100);
+        Entity house = TestWorlds.house(1, 1);
+        world.addEntity(house);
+
+        world.moveEntity(house, new Point(70, 70));
+
+        assertTrue(world.getEntitiesIn(0, 0, Chunk.SIZE, Chunk.SIZE).isEmpty());
+        assertEquals(List.of(house), world.getEntitiesIn(64, 64, 10, 10));
+    }
+
+    private static List<Point> filled(WorldModel world, short tile) {
+        List<Point> filled = new ArrayList<>();
+        for (int row = 0; row < world.getNumRows(); row++) {
+            for (int col = 0; col < world.getNumCols(); col++) {
+                if (world.getBackgroundTile(col, row) == tile) {
+                    filled.add(new Point(col, row));
+                }
+            }
+        }
+        return filled;
+    }
+
+    @Test
+    void floodFillStopsAtOtherTilesAndReportsOneBatch() {
+        WorldModel world = TestWorlds.world(80, 50);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        // A dirt wall around a region that spans four chunks, with a C of dirt open to the right inside it
+        world.paintLine(20, 20, 60, 20, dirt);
+        world.paintLine(20, 40, 60, 40, dirt);
+        world.paintLine(20, 20, 20, 40, dirt);
+        world.paintLine(60, 20, 60, 40, dirt);
+        world.fillRect(30, 25, 10, 1, dirt);
+        world.fillRect(30, 25, 1, 10, dirt);
+        world.fillRect(30, 35, 10, 1, dirt);
+        int[] batches = new int[2];
+        world.addEditListener(new WorldEditListener() {
+            public void backgroundChanged(int col, int row, short oldTile, short newTile) {
+                batches[1]++;
+            }
+
+            public void tilesChanged(TileChanges changes) {
+                batches[0]++;
+                batches[1] += changes.size();
+            }
+
+            public void entityAdded(Entity entity) {
+            }
+
+            public void entityRemoved(Entity entity, int col, int row) {
+            }
+        });
+
+        world.floodFill(35, 30, grass);
+
+        assertEquals(1, batches[0]);
+        assertEquals(39 * 19 - 29, batches[1]);
+        assertEquals(batches[1], filled(world, grass).size());
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(0, 0));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(79, 49));
+        assertEquals(dirt, world.getBackgroundTile(30, 30));
+    }
+
+    @Test
+    void floodFillCoversAWholeEmptyWorld() {
+        WorldModel world = TestWorlds.world(300, 200);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+
+        world.floodFill(150, 100, grass);
+        world.floodFill(-1, 0, TilePalette.DEFAULT_TILE);
+
+        assertEquals(300 * 200, filled(world, grass).size());
+    }
+
+    @Test
+    void paintLineIncludesBothEndsInEitherDirection() {
+        WorldModel world = TestWorlds.world(20, 20);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+
+        world.paintLine(2, 3, 12, 7, dirt);
+        world.paintLine(12, 7, 2, 3, grass);
+
+        List<Point> line = filled(world, grass);
+        assertEquals(11, line.size());
+        assertTrue(line.contains(new Point(2, 3)));
+        assertTrue(line.contains(new Point(12, 7)));
+        assertTrue(filled(world, dirt).isEmpty());
+
+        world.paintLine(5, 19, 6, 0, dirt);
+        assertEquals(20, filled(world, dirt).size());
+    }
+
+    @Test
+    void paintLineSkipsTheTilesOutsideTheWorld() {
+        WorldModel world = TestWorlds.world(10, 10);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+
+        world.paintLine(-5, -5, 20, 20, dirt);
+        world.paintLine(-3, 12, 15, 12, dirt);
+
+        List<Point> line = filled(world, dirt);
+        assertEquals(10, line.size());
+        for (Point pos : line) {
+            assertEquals(pos.getX(), pos.getY());
+        }
+    }
+
+    @Test
+    void paintLineClipsEndsFarOutsideTheWorld() {
+        WorldModel world = TestWorlds.world(10, 10);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+
+        // Walked tile by tile these would take billions of steps or overflow
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            world.paintLine(0, 3, 2000000000, 3, dirt);
+            world.paintLine(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, dirt);
+            world.paintLine(Integer.MIN_VALUE, 5, Integer.MIN_VALUE, 5, dirt);
+        });
+
+        List<Point> line = filled(world, dirt);
+        assertEquals(10 + 9, line.size());
+        for (int col = 0; col < 10; col++) {
+            assertTrue(line.contains(new Point(col, 3)));
+            assertTrue(line.contains(new Point(col, col)));
+        }
+    }
+
+    @Test
+    void fillRectIsClippedToTheWorld() {
+        WorldModel world = TestWorlds.world(10, 10);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+
+        world.fillRect(-2, 7, 5, 10, grass);
+
+        assertEquals(3 * 3, filled(world, grass).size());
+        assertEquals(grass, world.getBackgroundTile(0, 9));
+    }
+}
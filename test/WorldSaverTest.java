@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldSaverTest
+{
+    @TempDir
+    Path dir;
+
+    private final WorldSaver saver = new WorldSaver();
+
+    @AfterEach
+    void shutDownSaver() {
+        this.saver.shutdown();
+    }
+
+    @Test
+    void copyIsNotChangedByLaterEditsToEitherWorld() {
+        WorldModel world = TestWorlds.world(64, 64);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        short dirt = TestWorlds.tile(world, "dirt", 0x884400);
+        Entity house = TestWorlds.house(3, 3);
+        world.setBackgroundTile(1, 1, grass);
+        world.addEntity(house);
+
+        WorldModel copy = world.copy();
+        world.setBackgroundTile(1, 1, dirt);
+        world.setBackgroundTile(40, 40, dirt);
+        world.removeEntity(house);
+        copy.setBackgroundTile(2, 2, dirt);
+
+        assertEquals(grass, copy.getBackgroundTile(1, 1));
+        assertNull(copy.getChunkTiles(1, 1));
+        assertSame(house, copy.getOccupancyCell(3, 3));
+        assertEquals(dirt, world.getBackgroundTile(1, 1));
+        assertEquals(TilePalette.DEFAULT_TILE, world.getBackgroundTile(2, 2));
+        assertFalse(world.isOccupied(3, 3));
+    }
+
+    @Test
+    void saveWritesTheWorldAsItWasWhenRequested() throws IOException {
+        WorldModel world = TestWorlds.world(64, 64);
+        short grass = TestWorlds.tile(world, "grass", 0x00ff00);
+        world.setBackgroundTile(5, 6, grass);
+        world.addEntity(TestWorlds.house(7, 8));
+        Path target = this.dir.resolve("output.sav");
+        boolean[] saved = new boolean[1];
+
+        this.saver.save(world, target, () -> saved[0] = true);
+        world.setBackgroundTile(5, 6, TestWorlds.tile(world, "dirt", 0x884400));
+        world.removeEntity(world.getOccupancyCell(7, 8));
+        world.addEntity(TestWorlds.house(9, 9));
+        this.saver.awaitIdle();
+
+        assertTrue(saved[0]);
+        assertEquals(1, this.saver.pollCompleted());
+        assertFalse(this.saver.isSaving());
+        WorldModel loaded = TestWorlds.world(0, 0);
+        new Parser().load(target, loaded, TestWorlds.imageStore());
+        assertEquals("grass", loaded.getPalette().get(loaded.getBackgroundTile(5, 6)).getId());
+        assertTrue(loaded.isOccupied(7, 8));
+        assertFalse(loaded.isOccupied(9, 9));
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WorldViewTest
+{
+    private static final int VIEW_COLS = 10;
+    private static final int VIEW_ROWS = 8;
+
+    private WorldModel world;
+    private WorldView view;
+    private short grass;
+
+    @BeforeEach
+    void createView() {
+        this.world = TestWorlds.world(100, 100);
+        this.grass = TestWorlds.tile(this.world, "grass", 0x00ff00);
+        this.view = new WorldView(VIEW_ROWS, VIEW_COLS,
+                TestWorlds.screen(VIEW_COLS * TestWorlds.TILE_SIZE, VIEW_ROWS * TestWorlds.TILE_SIZE),
+                this.world, TestWorlds.TILE_SIZE, TestWorlds.TILE_SIZE);
+        this.view.drawViewport();
+    }
+
+    @Test
+    void firstFrameRepaintsEveryTileAndIdleFramesNone() {
+        this.view.invalidateAll();
+        this.view.drawViewport();
+        assertEquals(VIEW_COLS * VIEW_ROWS, this.view.getTilesDrawn());
+
+        this.view.drawViewport();
+        assertEquals(0, this.view.getTilesDrawn());
+    }
+
+    @Test
+    void onlyVisibleEditsAreRepainted() {
+        this.world.setBackgroundTile(3, 2, this.grass);
+        this.world.setBackgroundTile(50, 50, this.grass);
+        this.view.drawViewport();
+
+        assertEquals(1, this.view.getTilesDrawn());
+    }
+
+    @Test
+    void bulkEditsRepaintTheirVisiblePart() {
+        this.world.fillRect(VIEW_COLS - 2, 0, 5, 3, this.grass);
+        this.view.drawViewport();
+
+        assertEquals(2 * 3, this.view.getTilesDrawn());
+    }
+
+    @Test
+    void removingAnEntityRepaintsOnlyItsTile() {
+        this.world.addEntity(TestWorlds.house(4, 4));
+        this.world.addEntity(TestWorlds.house(6, 6));
+        this.view.drawViewport();
+        this.world.removeEntity(this.world.getOccupancyCell(6, 6));
+        this.view.drawViewport();
+
+        assertEquals(1, this.view.getTilesDrawn());
+        assertEquals(0, this.view.getEntitiesDrawn());
+    }
+
+    @Test
+    void scrollingRepaintsTheWholeView() {
+        this.view.shiftView(1, 0);
+        this.view.drawViewport();
+
+        assertEquals(1, this.view.getViewport().getCol());
+        assertEquals(VIEW_COLS * VIEW_ROWS, this.view.getTilesDrawn());
+    }
+}
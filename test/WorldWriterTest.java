@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldWriterTest
+{
+    // Several bands of rows, and a partial chunk at the right and bottom edges
+    private static final int COLS = 300;
+    private static final int ROWS = 500;
+
+    private static WorldModel world;
+    private static byte[] serial;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void writeSerially() throws IOException {
+        world = TestWorlds.world(COLS, ROWS);
+        short[] tiles = {
+                TestWorlds.tile(world, "grass", 0x00ff00),
+                TestWorlds.tile(world, "flowers", 0xffff00),
+                TestWorlds.tile(world, "dirt", 0x884400)
+        };
+        Random random = new Random(3);
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                // Rows past 400 are left default, so their chunks are never allocated
+                if (row < 400) {
+                    world.setBackgroundTile(col, row, tiles[random.nextInt(tiles.length)]);
+                }
+                if (random.nextInt(30) == 0) {
+                    world.addEntity(Factory.createTree("tree_" + col + "_" + row, new Point(col, row),
+                            TestWorlds.imageStore().getImageList("tree"), 500, 1000, random.nextInt(1, 3)));
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            WorldWriter.writeText(world, out);
+        }
+        serial = bytes.toByteArray();
+    }
+
+    @Test
+    void parallelOutputMatchesTheSerialWriter() throws IOException {
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        double[] progress = new double[1];
+
+        WorldWriter.writeText(world, parallel, false, fraction -> progress[0] = fraction);
+
+        assertArrayEquals(serial, parallel.toByteArray());
+        assertEquals(1.0, progress[0]);
+    }
+
+    @Test
+    void gzipOutputDecompressesToTheSerialOutput() throws IOException {
+        Path path = this.dir.resolve("world.sav" + WorldWriter.GZIP_EXTENSION);
+
+        WorldWriter.save(world, path);
+
+        assertTrue(Files.size(path) < serial.length / 4);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            assertArrayEquals(serial, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void savedFilesLoadBackTheSameWorld() throws IOException {
+        for (String name : new String[] {"world.sav", "world.sav" + WorldWriter.GZIP_EXTENSION}) {
+            Path path = this.dir.resolve(name);
+            WorldWriter.save(world, path);
+
+            WorldModel loaded = TestWorlds.world(0, 0);
+            new Parser().load(path, loaded, TestWorlds.imageStore());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            WorldWriter.writeText(loaded, bytes, false, fraction -> { });
+            assertArrayEquals(serial, bytes.toByteArray(), name);
+            assertEquals(world.getEntities().size(), loaded.getEntities().size());
+            assertTrue(Files.notExists(this.dir.resolve(name + ".tmp")));
+        }
+    }
+}